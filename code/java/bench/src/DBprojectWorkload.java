@@ -0,0 +1,179 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import bench.Workload;
+
+/**
+ * This class runs the benchmarked DBproject calls against a local
+ * database, see bench.QueryBenchmark.
+ *
+ */
+
+public class DBprojectWorkload implements Workload{
+	//first day of the generated slots, after all shipped data
+	static final LocalDate SCALE_START = LocalDate.of(2030, 1, 1);
+	static final List<String> SCALE_SLOTS = Arrays.asList("8:00-10:00", "10:00-12:00", "13:00-15:00", "15:00-17:00");
+	//days generated per transaction
+	static final int SCALE_CHUNK_DAYS = 30;
+	static final List<String> STATUSES = Arrays.asList("PA", "AC", "AV", "WL");
+
+	ConnectionPool pool;
+	int patients;
+	int doctors;
+	int appointments;
+	List<String> departments;
+	List<String> dates;
+
+	public void setup(int scale, boolean reload) throws Exception {
+		String user = System.getProperty("bench.user", System.getProperty("user.name"));
+		String db = System.getProperty("bench.db", user + "_DB");
+		String port = System.getProperty("bench.port", System.getenv().getOrDefault("PGPORT", "5432"));
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		this.pool = new ConnectionPool(DBproject.connectionUrl(db, port), DBproject.connectionProperties(user, ""),
+				1, threads, SessionServer.IDLE_TIMEOUT_MILLIS, SessionServer.BORROW_TIMEOUT_MILLIS);
+
+		DBproject esql = open(this.pool);
+		try{
+			if (reload)
+				reload(esql, new File(System.getProperty("bench.data", "../../data")));
+			if (scale > 0)
+				scale(esql, scale);
+
+			this.patients = count(esql, "Select max(patient_ID) from Patient") + 1;
+			this.doctors = count(esql, "Select max(doctor_ID) from Doctor") + 1;
+			this.appointments = count(esql, "Select max(appnt_ID) from Appointment") + 1;
+			this.departments = column(esql, "Select distinct name from Department");
+			this.dates = column(esql, "Select distinct cast(adate as varchar) from Appointment where status = 'AV'");
+		}finally{
+			esql.cleanup();
+		}//end try
+	}
+
+	public Workload.Session session(){
+		return new Session(open(this.pool));
+	}
+
+	public void close(){
+		this.pool.close();
+	}
+
+	class Session implements Workload.Session{
+		final DBproject esql;
+
+		Session(DBproject esql){
+			this.esql = esql;
+		}
+
+		public Object returnResult() throws SQLException {
+			return this.esql.executeQueryAndReturnResult(DBproject.PATIENT_BY_ID, random(patients));
+		}
+
+		public int printResult() throws SQLException {
+			return this.esql.executeQueryAndPrintResult(DBproject.DOCTOR_BY_ID, random(doctors));
+		}
+
+		public Object makeAppointment() throws SQLException {
+			// rolled back, so the data set does not drift during the run
+			Connection conn = this.esql.pin();
+			try{
+				conn.setAutoCommit(false);
+				return BookingEngine.book(this.esql, random(patients), random(doctors), random(appointments));
+			}finally{
+				conn.rollback();
+				conn.setAutoCommit(true);
+				this.esql.unpin();
+			}//end try
+		}
+
+		public int listAppointmentsOfDoctor() throws SQLException {
+			String start = pick(dates);
+			String end = LocalDate.parse(start).plusDays(30).toString();
+			return this.esql.executeQueryAndPrintResult(DBproject.LIST_APPOINTMENTS_OF_DOCTOR, start, end, random(doctors));
+		}
+
+		public int listAvailableAppointmentsOfDepartment() throws SQLException {
+			return this.esql.executeQueryAndPrintResult(DBproject.LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT, pick(departments), pick(dates));
+		}
+
+		public int findSlots() throws SQLException {
+			LocalDate from = LocalDate.parse(pick(dates));
+			SlotSearch search = new SlotSearch(Arrays.asList(pick(departments)), null, from, from.plusDays(SlotSearch.DEFAULT_DAYS));
+			return search.first(this.esql, SlotSearch.DEFAULT_LIMIT).size();
+		}
+
+		public int listStatusNumberOfAppointmentsPerDoctor() throws SQLException {
+			return this.esql.executeQueryAndPrintResult(DBproject.LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR, DBproject.NO_PARAMS);
+		}
+
+		public int findPatientsCountWithStatus() throws SQLException {
+			return this.esql.executeQueryAndPrintResult(DBproject.FIND_PATIENTS_COUNT_WITH_STATUS, pick(STATUSES));
+		}
+
+		public void close(){
+			this.esql.cleanup();
+		}
+	}//end Session
+
+	/*
+	 * a session writing its output nowhere
+	 */
+	static DBproject open(ConnectionPool pool){
+		return new DBproject(pool, new BufferedReader(new StringReader("")), new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	static int random(int bound){
+		return ThreadLocalRandom.current().nextInt(Math.max(bound, 1));
+	}
+
+	static String pick(List<String> values){
+		return values.get(random(values.size()));
+	}
+
+	void reload(DBproject esql, File dataDir) throws Exception {
+		StringBuilder tables = new StringBuilder();
+		for (BulkLoader.Table table : BulkLoader.TABLES)
+			tables.append(tables.length() == 0 ? "" : ", ").append(table.name);
+		esql.executeUpdate("TRUNCATE " + tables + " CASCADE");
+		long start = System.nanoTime();
+		List<BulkLoader.Result> results = new BulkLoader(this.pool).loadDirectory(dataDir);
+		BulkLoader.report(results, System.nanoTime() - start);
+		esql.executeUpdate("ANALYZE");
+	}
+
+	static void scale(DBproject esql, int days) throws SQLException {
+		LocalDate last = SCALE_START.plusDays(days - 1);
+		if (esql.executeQuery("Select 1 from Appointment where adate = cast(? as date)", last.toString()) == 1)
+			return;
+		List<Integer> doctorIds = new ArrayList<Integer>();
+		for (String id : column(esql, "Select doctor_ID from Doctor"))
+			doctorIds.add(Integer.parseInt(id));
+		for (LocalDate from = SCALE_START; !from.isAfter(last); from = from.plusDays(SCALE_CHUNK_DAYS)){
+			LocalDate to = from.plusDays(SCALE_CHUNK_DAYS - 1);
+			SlotGenerator.generate(esql, doctorIds, from, to.isAfter(last) ? last : to, SCALE_SLOTS);
+		}//end for
+		esql.executeUpdate("ANALYZE");
+	}
+
+	static int count(DBproject esql, String query) throws SQLException {
+		String value = esql.executeQueryAndReturnResult(query, DBproject.NO_PARAMS).get(0).get(0);
+		return value == null ? 0 : Integer.parseInt(value);
+	}
+
+	static List<String> column(DBproject esql, String query) throws SQLException {
+		List<String> values = new ArrayList<String>();
+		for (List<String> record : esql.executeQueryAndReturnResult(query, DBproject.NO_PARAMS))
+			values.add(record.get(0));
+		return values;
+	}
+}//end DBprojectWorkload
@@ -0,0 +1,116 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the DBproject query paths against a local Postgres
+ * database created with create.sql.  Throughput and sampled latencies
+ * (including p99) are reported per benchmark.
+ *
+ * The database is taken from the system properties bench.db, bench.port
+ * and bench.user (defaulting to $USER_DB on $PGPORT, as run.sh does).
+ * With -p reload=true all tables are emptied and reloaded from the files of
+ * bench.data (default ../../data) first, and -p scale=N adds N days of
+ * available slots for every doctor (250 doctors x 4 slots, so scale=1000
+ * adds about a million appointments) unless they exist already.
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class QueryBenchmark{
+	@Param({"0"})
+	public int scale;
+
+	@Param({"false"})
+	public boolean reload;
+
+	Workload workload;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.workload = (Workload) Class.forName("DBprojectWorkload").getDeclaredConstructor().newInstance();
+		this.workload.setup(this.scale, this.reload);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		this.workload.close();
+	}
+
+	/**
+	 * One session per benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Session{
+		Workload.Session session;
+
+		@Setup(Level.Trial)
+		public void open(QueryBenchmark bench){
+			this.session = bench.workload.session();
+		}
+
+		@TearDown(Level.Trial)
+		public void close(){
+			this.session.close();
+		}
+	}
+
+	@Benchmark
+	public Object returnResult(Session s) throws Exception {
+		return s.session.returnResult();
+	}
+
+	@Benchmark
+	public int printResult(Session s) throws Exception {
+		return s.session.printResult();
+	}
+
+	@Benchmark
+	public Object makeAppointment(Session s) throws Exception {
+		return s.session.makeAppointment();
+	}
+
+	@Benchmark
+	public int listAppointmentsOfDoctor(Session s) throws Exception {
+		return s.session.listAppointmentsOfDoctor();
+	}
+
+	@Benchmark
+	public int listAvailableAppointmentsOfDepartment(Session s) throws Exception {
+		return s.session.listAvailableAppointmentsOfDepartment();
+	}
+
+	@Benchmark
+	public int findSlots(Session s) throws Exception {
+		return s.session.findSlots();
+	}
+
+	@Benchmark
+	public int listStatusNumberOfAppointmentsPerDoctor(Session s) throws Exception {
+		return s.session.listStatusNumberOfAppointmentsPerDoctor();
+	}
+
+	@Benchmark
+	public int findPatientsCountWithStatus(Session s) throws Exception {
+		return s.session.findPatientsCountWithStatus();
+	}
+}//end QueryBenchmark
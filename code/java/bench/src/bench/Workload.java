@@ -0,0 +1,58 @@
+package bench;
+
+/**
+ * The operations measured by QueryBenchmark.  JMH only generates code for
+ * benchmarks in a named package, while the application lives in the
+ * default package, which named packages cannot refer to.  The
+ * implementation (DBprojectWorkload, default package) is therefore loaded
+ * by name once and called through this interface.
+ *
+ */
+
+public interface Workload{
+	/**
+	 * Method to connect and prepare the data set.
+	 *
+	 * @param scale days of available slots to add for every doctor
+	 * @param reload empty all tables and reload them from the data files first
+	 */
+	void setup(int scale, boolean reload) throws Exception;
+
+	/**
+	 * @return a new session for one benchmark thread
+	 */
+	Session session();
+
+	void close();
+
+	/**
+	 * The measured calls, each with randomly chosen arguments.
+	 */
+	interface Session{
+		//executeQueryAndReturnResult, patient by ID
+		Object returnResult() throws Exception;
+
+		//executeQueryAndPrintResult, doctor by ID
+		int printResult() throws Exception;
+
+		//the MakeAppointment booking statement, rolled back
+		Object makeAppointment() throws Exception;
+
+		//menu option 5
+		int listAppointmentsOfDoctor() throws Exception;
+
+		//menu option 6
+		int listAvailableAppointmentsOfDepartment() throws Exception;
+
+		//SlotSearch, first page of a department over 30 days
+		int findSlots() throws Exception;
+
+		//menu option 7
+		int listStatusNumberOfAppointmentsPerDoctor() throws Exception;
+
+		//menu option 8
+		int findPatientsCountWithStatus() throws Exception;
+
+		void close();
+	}
+}//end Workload
@@ -1,3 +1,4 @@
 #! /bin/bash
+# needs the PostgreSQL JDBC driver pinned by pom.xml in lib/
 rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/DBproject.java -d bin/
+javac -cp "lib/postgresql-42.7.3.jar" src/*.java -d bin/
@@ -0,0 +1,76 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds a row of the Appointment table.
+ *
+ */
+
+public class Appointment{
+	//the column names of "Select a.* from Appointment a", as printed by the menu
+	public static final String[] COLUMNS = { "appnt_id", "adate", "time_slot", "status" };
+
+	public static final RowMapper.Factory<Appointment> MAPPER = rsmd -> {
+		final int id = RowMapper.column(rsmd, "appnt_ID");
+		final int date = RowMapper.column(rsmd, "adate");
+		final int timeSlot = RowMapper.column(rsmd, "time_slot");
+		final int status = RowMapper.column(rsmd, "status");
+		return rs -> new Appointment(rs.getInt(id), rs.getObject(date, LocalDate.class), rs.getString(timeSlot), Status.of(rs.getString(status)));
+	};
+
+	private final int _id;
+	private final LocalDate _date;
+	private final String _timeSlot;
+	private final Status _status;
+
+	public Appointment(int id, LocalDate date, String timeSlot, Status status){
+		this._id = id;
+		this._date = date;
+		this._timeSlot = timeSlot;
+		this._status = status;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public LocalDate getDate(){
+		return this._date;
+	}
+
+	public String getTimeSlot(){
+		return this._timeSlot;
+	}
+
+	/**
+	 * @return the status, may be null
+	 */
+	public Status getStatus(){
+		return this._status;
+	}
+
+	/**
+	 * @return the values as printed for COLUMNS
+	 */
+	public List<String> toRow(){
+		List<String> row = new ArrayList<String>(COLUMNS.length);
+		row.add(Integer.toString(this._id));
+		row.add(String.valueOf(this._date));
+		row.add(this._timeSlot);
+		row.add(this._status == null ? null : this._status.name());
+		return row;
+	}
+
+	/**
+	 * @return the appointment with the given ID, null if there is none
+	 */
+	public static Appointment find(DBproject esql, int appID) throws SQLException {
+		return esql.executeQueryAndMapFirst(DBproject.APPOINTMENT_BY_ID, MAPPER, appID);
+	}
+
+	public String toString(){
+		return "Appointment " + this._id + " " + this._date + " " + this._timeSlot + " " + this._status;
+	}
+}//end Appointment
@@ -0,0 +1,114 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * This class holds a row of the appointment_events outbox: the insert or
+ * the status change of an appointment.  Events are delivered at least
+ * once, consumers recognize a repeated event by its ID.
+ *
+ */
+
+public class AppointmentEvent{
+	public static final RowMapper.Factory<AppointmentEvent> MAPPER = rsmd -> {
+		final int id = RowMapper.column(rsmd, "event_id");
+		final int operation = RowMapper.column(rsmd, "operation");
+		final int appointmentId = RowMapper.column(rsmd, "appt_id");
+		final int date = RowMapper.column(rsmd, "adate");
+		final int timeSlot = RowMapper.column(rsmd, "time_slot");
+		final int oldStatus = RowMapper.column(rsmd, "old_status");
+		final int newStatus = RowMapper.column(rsmd, "new_status");
+		final int changed = RowMapper.column(rsmd, "changed");
+		return rs -> new AppointmentEvent(rs.getLong(id), rs.getString(operation), rs.getInt(appointmentId),
+				rs.getObject(date, LocalDate.class), rs.getString(timeSlot),
+				Status.of(rs.getString(oldStatus)), Status.of(rs.getString(newStatus)), rs.getObject(changed, LocalDateTime.class));
+	};
+
+	private final long _id;
+	private final String _operation;
+	private final int _appointmentId;
+	private final LocalDate _date;
+	private final String _timeSlot;
+	private final Status _oldStatus;
+	private final Status _newStatus;
+	private final LocalDateTime _changed;
+
+	public AppointmentEvent(long id, String operation, int appointmentId, LocalDate date, String timeSlot,
+			Status oldStatus, Status newStatus, LocalDateTime changed){
+		this._id = id;
+		this._operation = operation;
+		this._appointmentId = appointmentId;
+		this._date = date;
+		this._timeSlot = timeSlot;
+		this._oldStatus = oldStatus;
+		this._newStatus = newStatus;
+		this._changed = changed;
+	}
+
+	public long getId(){
+		return this._id;
+	}
+
+	/**
+	 * @return INSERT or UPDATE
+	 */
+	public String getOperation(){
+		return this._operation;
+	}
+
+	public int getAppointmentId(){
+		return this._appointmentId;
+	}
+
+	public LocalDate getDate(){
+		return this._date;
+	}
+
+	public String getTimeSlot(){
+		return this._timeSlot;
+	}
+
+	/**
+	 * @return the status before the change, null for an insert
+	 */
+	public Status getOldStatus(){
+		return this._oldStatus;
+	}
+
+	/**
+	 * @return the status after the change, may be null
+	 */
+	public Status getNewStatus(){
+		return this._newStatus;
+	}
+
+	/**
+	 * @return the start of the transaction that made the change
+	 */
+	public LocalDateTime getChanged(){
+		return this._changed;
+	}
+
+	/**
+	 * @return the event as one line of JSON, as written by the sinks
+	 */
+	public String toJson(){
+		return "{\"id\": " + this._id +
+			", \"op\": " + quote(this._operation) +
+			", \"apptid\": " + this._appointmentId +
+			", \"date\": " + quote(this._date) +
+			", \"time_slot\": " + quote(this._timeSlot) +
+			", \"old_status\": " + quote(this._oldStatus) +
+			", \"new_status\": " + quote(this._newStatus) +
+			", \"changed\": " + quote(this._changed) + "}";
+	}
+
+	private static String quote(Object value){
+		if (value == null)
+			return "null";
+		return "\"" + value.toString().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	public String toString(){
+		return "Event " + this._id + " " + this._operation + " appointment " + this._appointmentId + " " + this._oldStatus + " -> " + this._newStatus;
+	}
+}//end AppointmentEvent
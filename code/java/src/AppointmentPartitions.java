@@ -0,0 +1,251 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class maintains the monthly partitions of Appointment and its links
+ * (has_appointment, searches, schedules) on a schema converted by
+ * partition.sql.  It creates the partitions of the coming months ahead of
+ * the bookings, and retires the months before a retention limit: their
+ * partitions are detached, and optionally written to files and dropped.
+ *
+ * Partitions are detached concurrently on PostgreSQL 14 and later, so
+ * bookings carry on meanwhile; earlier servers lock each parent for the
+ * instant of the detach.  Every statement gives up after the lock timeout
+ * rather than queueing bookings behind it, the next run picks up where a
+ * failed one stopped.  The status counters of retired links are taken off
+ * doctor_status_count, a run that fails in between leaves them for
+ * StatusCounters -refresh.
+ *
+ */
+
+public class AppointmentPartitions{
+	public static final int DEFAULT_MONTHS_AHEAD = 3;
+	public static final String DEFAULT_LOCK_TIMEOUT = "5s";
+
+	static final String APPOINTMENT = "appointment";
+	// detached before Appointment, their foreign keys reference it
+	static final String[] LINKS = { "has_appointment", "searches", "schedules" };
+	static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("'_p'yyyyMM");
+	static final RowMapper.Factory<Boolean> FIRST_BOOLEAN = rsmd -> rs -> rs.getBoolean(1);
+
+	static final String IS_PARTITIONED = "select relkind = 'p' from pg_class where oid = to_regclass(?)";
+	static final String ADD_MONTH = "select add_appointment_month(cast(? as date))";
+	static final String PARTITIONS =
+		"select c.relname from pg_inherits i, pg_class c" +
+		" where i.inhparent = to_regclass(?) and i.inhrelid = c.oid order by c.relname";
+	// pending detaches of an interrupted run exist from version 14 on
+	static final String ATTACHED = "select false from pg_inherits where inhparent = to_regclass(?) and inhrelid = to_regclass(?)";
+	static final String ATTACHED_14 = "select inhdetachpending from pg_inherits where inhparent = to_regclass(?) and inhrelid = to_regclass(?)";
+	static final String CLEAR_QUEUES = "delete from booking_queue where adate >= cast(? as date) and adate < cast(? as date)";
+	static final String FOREIGN_KEYS =
+		"select conname from pg_constraint where conrelid = to_regclass(?) and contype = 'f'" +
+		" and conparentid = 0 and confrelid = to_regclass('" + APPOINTMENT + "')";
+
+	private final DBproject _esql;
+	private final String _lockTimeout;
+
+	public AppointmentPartitions(DBproject esql, String lockTimeout){
+		this._esql = esql;
+		this._lockTimeout = lockTimeout;
+	}
+
+	/**
+	 * Method to check whether partition.sql was run on the database.
+	 */
+	public boolean isPartitioned() throws SQLException {
+		Boolean partitioned = this._esql.executeQueryAndMapFirst(IS_PARTITIONED, FIRST_BOOLEAN, APPOINTMENT);
+		return partitioned != null && partitioned;
+	}
+
+	/**
+	 * @return the months that have partitions, in order
+	 */
+	public List<YearMonth> months() throws SQLException {
+		List<YearMonth> months = new ArrayList<YearMonth>();
+		for (List<String> record : this._esql.executeQueryAndReturnResult(PARTITIONS, APPOINTMENT))
+			months.add(YearMonth.parse(record.get(0).substring(APPOINTMENT.length()), SUFFIX));
+		return months;
+	}
+
+	/**
+	 * Method to create the partitions of the months from the current one to
+	 * the given one, where missing.
+	 *
+	 * @param last the last month to create
+	 * @return the number of months created
+	 * @throws java.sql.SQLException when a partition could not be created
+	 */
+	public int createAhead(YearMonth last) throws SQLException {
+		int created = 0;
+		Connection conn = pin();
+		try{
+			for (YearMonth month = YearMonth.now(); !month.isAfter(last); month = month.plusMonths(1)){
+				Boolean added = this._esql.executeQueryAndMapFirst(ADD_MONTH, FIRST_BOOLEAN, month.atDay(1).toString());
+				if (added != null && added)
+					++created;
+			}//end for
+		}finally{
+			unpin(conn);
+		}//end try
+		return created;
+	}//end createAhead
+
+	/**
+	 * Method to retire the months before the given one.
+	 *
+	 * @param before the first month to keep
+	 * @param archive the directory to write the rows of the retired months
+	 * to before their tables are dropped, null to keep them as detached tables
+	 * @return the months retired
+	 * @throws java.sql.SQLException when a partition could not be detached
+	 * @throws java.io.IOException when an archive could not be written
+	 */
+	public List<YearMonth> retire(YearMonth before, File archive) throws SQLException, IOException {
+		List<YearMonth> retired = new ArrayList<YearMonth>();
+		Connection conn = pin();
+		try{
+			boolean concurrently = conn.getMetaData().getDatabaseMajorVersion() >= 14;
+			for (YearMonth month : months()){
+				if (!month.isBefore(before))
+					break;
+				String suffix = month.format(SUFFIX);
+				for (String link : LINKS){
+					if (detach(link, link + suffix, concurrently) && link.equals("has_appointment"))
+						uncount(link + suffix, APPOINTMENT + suffix);
+					for (List<String> record : this._esql.executeQueryAndReturnResult(FOREIGN_KEYS, link + suffix))
+						this._esql.executeUpdate("alter table " + link + suffix + " drop constraint " + record.get(0));
+				}//end for
+				// past queues are over, their rows would keep Appointment from being detached
+				this._esql.executeUpdate(CLEAR_QUEUES, month.atDay(1).toString(), month.plusMonths(1).atDay(1).toString());
+				detach(APPOINTMENT, APPOINTMENT + suffix, concurrently);
+				if (archive != null){
+					for (String link : LINKS)
+						archive(conn, link + suffix, archive);
+					archive(conn, APPOINTMENT + suffix, archive);
+				}//end if
+				retired.add(month);
+			}//end for
+		}finally{
+			unpin(conn);
+		}//end try
+		return retired;
+	}//end retire
+
+	/*
+	 * detaches the partition if it is still attached, finishing a concurrent
+	 * detach that was interrupted
+	 */
+	private boolean detach(String parent, String partition, boolean concurrently) throws SQLException {
+		Boolean pending = this._esql.executeQueryAndMapFirst(concurrently ? ATTACHED_14 : ATTACHED, FIRST_BOOLEAN, parent, partition);
+		if (pending == null)
+			return false;
+		if (pending)
+			this._esql.executeUpdate("alter table " + parent + " detach partition " + partition + " finalize");
+		else
+			this._esql.executeUpdate("alter table " + parent + " detach partition " + partition + (concurrently ? " concurrently" : ""));
+		return true;
+	}
+
+	/*
+	 * takes the detached links off the status counters, which the triggers
+	 * did not see leave
+	 */
+	private void uncount(String links, String appointments) throws SQLException {
+		this._esql.executeQueryAndReturnResult(
+			"select count_status(h.doctor_id, a.status, -cast(count(*) as integer))" +
+			" from " + links + " h, " + appointments + " a" +
+			" where a.appnt_ID = h.appt_id and a.adate = h.adate group by h.doctor_id, a.status", DBproject.NO_PARAMS);
+	}
+
+	/*
+	 * writes the rows of a detached table like the COPY of create.sql reads
+	 * them (the links with their date), then drops the table
+	 */
+	private void archive(Connection conn, String table, File directory) throws SQLException, IOException {
+		if (this._esql.executeQueryAndReturnResult("select to_regclass(?)", table).get(0).get(0) == null)
+			return;
+		CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+		try (Writer out = new FileWriter(new File(directory, table + ".csv"))){
+			copy.copyOut("COPY " + table + " TO STDOUT WITH DELIMITER ','", out);
+		}//end try
+		this._esql.executeUpdate("drop table " + table);
+	}
+
+	private Connection pin() throws SQLException {
+		Connection conn = this._esql.pin();
+		this._esql.executeUpdate("set lock_timeout = '" + this._lockTimeout + "'");
+		return conn;
+	}
+
+	private void unpin(Connection conn){
+		try{
+			this._esql.executeUpdate("reset lock_timeout");
+		}catch (SQLException e){
+			// ignored, the session is closed or the connection broken.
+		}//end try
+		this._esql.unpin();
+	}
+
+	/**
+	 * Creates the partitions of the coming months and retires the months
+	 * older than the retention, if given.
+	 *
+	 * @param args <dbname> <port> <user> [-ahead <months>] [-retain <months>] [-archive <dir>]
+	 */
+	public static void main(String[] args){
+		int ahead = DEFAULT_MONTHS_AHEAD;
+		int retain = -1;
+		File archive = null;
+		boolean usage = args.length < 3 || args.length % 2 == 0;
+		for (int i = 3; !usage && i < args.length; i += 2){
+			if (args[i].equals("-ahead"))
+				ahead = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-retain"))
+				retain = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-archive"))
+				archive = new File(args[i + 1]);
+			else
+				usage = true;
+		}//end for
+		if (usage){
+			System.err.println("Usage: java [-classpath <classpath>] " + AppointmentPartitions.class.getName() +
+					" <dbname> <port> <user> [-ahead <months>] [-retain <months>] [-archive <dir>]");
+			return;
+		}//end if
+		DBproject esql = null;
+		int status = 0;
+		try{
+			esql = new DBproject(args[0], args[1], args[2], "");
+			// detaches and archives run for longer than the menu queries
+			esql.setQueryTimeout(0);
+			AppointmentPartitions partitions = new AppointmentPartitions(esql, DEFAULT_LOCK_TIMEOUT);
+			if (!partitions.isPartitioned())
+				throw new SQLException("Appointment is not partitioned, run partition.sql first");
+			System.out.println("Created " + partitions.createAhead(YearMonth.now().plusMonths(ahead)) + " month(s) of partitions");
+			if (retain >= 0){
+				if (archive != null && !archive.isDirectory() && !archive.mkdirs())
+					throw new IOException("Unable to create " + archive);
+				for (YearMonth month : partitions.retire(YearMonth.now().minusMonths(retain), archive))
+					System.out.println((archive == null ? "Detached " : "Archived ") + month);
+			}//end if
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			status = 1;
+		}finally{
+			if (esql != null)
+				esql.cleanup();
+		}//end try
+		System.exit(status);
+	}
+}//end AppointmentPartitions
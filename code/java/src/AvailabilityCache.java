@@ -0,0 +1,235 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class caches the available appointments of a department on a date
+ * (menu option 6).  Entries are evicted least recently used first once the
+ * cache is full, and reloaded after the time to live.  Booking an
+ * appointment drops the entries that list it, and adding an appointment
+ * drops the entries of its date, so changes made through this process are
+ * visible right away; changes made by other processes show up after the
+ * time to live at the latest.
+ *
+ */
+
+public class AvailabilityCache{
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+	public static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+	static final DateTimeFormatter INPUT_DATE = DateTimeFormatter.ofPattern("M/d/yyyy");
+
+	/**
+	 * This class holds the cached result of one department and date.
+	 */
+	public static class Result extends QueryResult{
+		final List<Appointment> appointments;
+		final long loadedAt;
+
+		Result(List<Appointment> appointments){
+			super(Appointment.COLUMNS, toRows(appointments));
+			this.appointments = appointments;
+			this.loadedAt = System.currentTimeMillis();
+		}
+
+		public List<Appointment> getAppointments(){
+			return this.appointments;
+		}
+
+		private static List<List<String>> toRows(List<Appointment> appointments){
+			List<List<String>> rows = new ArrayList<List<String>>(appointments.size());
+			for (Appointment appointment : appointments)
+				rows.add(appointment.toRow());
+			return rows;
+		}
+	}//end Result
+
+	private final int _maxEntries;
+	private final long _ttlMillis;
+	//least recently used entry first
+	private final LinkedHashMap<String, Result> _entries;
+	//appointment ID -> keys of the entries listing it
+	private final Map<Integer, Set<String>> _byAppointment = new HashMap<Integer, Set<String>>();
+	//changes on every invalidation, so loads that raced with one are not stored
+	private long _generation = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _loadNanos = 0;
+
+	public AvailabilityCache(int maxEntries, long ttlMillis){
+		this._maxEntries = maxEntries;
+		this._ttlMillis = ttlMillis;
+		this._entries = new LinkedHashMap<String, Result>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to return the available appointments of a department on a
+	 * date, loading them from the database if they are not cached.
+	 *
+	 * @param esql the session used to load missing entries
+	 * @param departmentName the department name
+	 * @param date the date as entered (M/D/YYYY or YYYY-MM-DD)
+	 * @return the cached or loaded result
+	 * @throws java.sql.SQLException when the result could not be loaded
+	 */
+	public Result get(DBproject esql, String departmentName, String date) throws SQLException {
+		String key = departmentName + '\u0000' + normalize(date);
+		long generation;
+		synchronized (this){
+			Result cached = this._entries.get(key);
+			if (cached != null && System.currentTimeMillis() - cached.loadedAt < this._ttlMillis){
+				++this._hits;
+				return cached;
+			}//end if
+			if (cached != null)
+				remove(key);
+			++this._misses;
+			generation = this._generation;
+		}//end synchronized
+
+		long start = System.nanoTime();
+		// the hospitals of the department from the reference data, if loaded
+		int[] hospitals = DBproject.reference.hospitalsOfDepartment(departmentName);
+		Result loaded = new Result(hospitals == null
+				? esql.executeQueryAndMap(DBproject.LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT, Appointment.MAPPER, departmentName, date)
+				: esql.executeQueryAndMap(DBproject.LIST_AVAILABLE_APPOINTMENTS_OF_HOSPITALS, Appointment.MAPPER, hospitals, date));
+
+		synchronized (this){
+			this._loadNanos += System.nanoTime() - start;
+			if (generation == this._generation){
+				put(key, loaded);
+			}//end if
+		}//end synchronized
+		return loaded;
+	}//end get
+
+	/**
+	 * Method to drop the entries listing an appointment, e.g. after it was
+	 * booked.
+	 *
+	 * @param appID the appointment ID
+	 */
+	public synchronized void invalidateAppointment(int appID){
+		++this._generation;
+		Set<String> keys = this._byAppointment.remove(appID);
+		if (keys != null){
+			for (String key : keys)
+				remove(key);
+		}//end if
+	}
+
+	/**
+	 * Method to drop the entries of a date, e.g. after an appointment was
+	 * added on it.
+	 *
+	 * @param date the date as entered (M/D/YYYY or YYYY-MM-DD)
+	 */
+	public synchronized void invalidateDate(String date){
+		++this._generation;
+		String suffix = '\u0000' + normalize(date);
+		List<String> keys = new ArrayList<String>();
+		for (String key : this._entries.keySet()){
+			if (key.endsWith(suffix))
+				keys.add(key);
+		}//end for
+		for (String key : keys)
+			remove(key);
+	}
+
+	/**
+	 * Method to drop all entries.
+	 */
+	public synchronized void clear(){
+		++this._generation;
+		this._entries.clear();
+		this._byAppointment.clear();
+	}
+
+	public synchronized long getHits(){
+		return this._hits;
+	}
+
+	public synchronized long getMisses(){
+		return this._misses;
+	}
+
+	public synchronized double getHitRatio(){
+		long lookups = this._hits + this._misses;
+		return lookups == 0 ? 0 : (double) this._hits / lookups;
+	}
+
+	/**
+	 * @return the average time a miss took to load, in milliseconds
+	 */
+	public synchronized double getAverageLoadMillis(){
+		return this._misses == 0 ? 0 : this._loadNanos / 1e6 / this._misses;
+	}
+
+	public synchronized int size(){
+		return this._entries.size();
+	}
+
+	private void put(String key, Result result){
+		remove(key);
+		this._entries.put(key, result);
+		for (Appointment appointment : result.appointments){
+			Set<String> keys = this._byAppointment.get(appointment.getId());
+			if (keys == null){
+				keys = new HashSet<String>();
+				this._byAppointment.put(appointment.getId(), keys);
+			}//end if
+			keys.add(key);
+		}//end for
+
+		//evicts least recently used entries beyond the capacity
+		Iterator<Map.Entry<String, Result>> it = this._entries.entrySet().iterator();
+		while (this._entries.size() > this._maxEntries && it.hasNext()){
+			Map.Entry<String, Result> eldest = it.next();
+			it.remove();
+			unindex(eldest.getKey(), eldest.getValue());
+		}//end while
+	}
+
+	private void remove(String key){
+		Result removed = this._entries.remove(key);
+		if (removed != null)
+			unindex(key, removed);
+	}
+
+	private void unindex(String key, Result result){
+		for (Appointment appointment : result.appointments){
+			int appID = appointment.getId();
+			Set<String> keys = this._byAppointment.get(appID);
+			if (keys != null){
+				keys.remove(key);
+				if (keys.isEmpty())
+					this._byAppointment.remove(appID);
+			}//end if
+		}//end for
+	}
+
+	/*
+	 * maps both date formats to one key, other input is kept as is
+	 */
+	static String normalize(String date){
+		String trimmed = date.trim();
+		try{
+			return LocalDate.parse(trimmed, INPUT_DATE).toString();
+		}catch (DateTimeParseException e){
+			try{
+				return LocalDate.parse(trimmed).toString();
+			}catch (DateTimeParseException e2){
+				return trimmed;
+			}//end try
+		}//end try
+	}
+}//end AvailabilityCache
@@ -0,0 +1,408 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class runs the menu operations from a file or stream of commands
+ * instead of the interactive menu, one command per line, either as CSV
+ *
+ *   make_appointment,17,4,230
+ *
+ * or as a JSON object with the argument names of OPERATIONS
+ *
+ *   {"op": "make_appointment", "pid": 17, "docid": 4, "apptid": 230}
+ *
+ * Empty lines and lines starting with '#' are skipped.  The commands run
+ * in transactions of commitInterval commands each; a failing command is
+ * rolled back to a savepoint taken before it, so it does not take the rest
+ * of its transaction with it.  Every command reports one tab separated line
+ * (input line, operation, OK or ERROR, milliseconds, message), and the run
+ * ends with the count, failures and average time per operation and the
+ * overall throughput.
+ *
+ */
+
+public class BatchRunner{
+	public static final int DEFAULT_COMMIT_INTERVAL = 100;
+
+	//operation -> argument names, in CSV order
+	static final Map<String, String[]> OPERATIONS = new LinkedHashMap<String, String[]>();
+	static{
+		OPERATIONS.put("add_doctor", new String[]{ "name", "specialty", "did" });
+		OPERATIONS.put("add_patient", new String[]{ "name", "gender", "age", "address", "number_of_appts" });
+		OPERATIONS.put("add_appointment", new String[]{ "date", "time_slot", "status" });
+		OPERATIONS.put("make_appointment", new String[]{ "pid", "docid", "apptid" });
+		OPERATIONS.put("book_new_patient", new String[]{ "pid", "docid", "apptid", "name", "gender", "age", "address" });
+		OPERATIONS.put("cancel_appointment", new String[]{ "pid", "apptid" });
+		OPERATIONS.put("list_appointments_of_doctor", new String[]{ "docid", "start", "end" });
+		OPERATIONS.put("list_available_appointments", new String[]{ "department", "date" });
+		OPERATIONS.put("find_slots", new String[]{ "department", "start", "end", "limit" });
+		OPERATIONS.put("list_status_counts", new String[0]);
+		OPERATIONS.put("patients_count_with_status", new String[]{ "status" });
+	}
+
+	/**
+	 * This class holds one parsed command.
+	 */
+	static class Command{
+		final String operation;
+		final Map<String, String> args;
+
+		Command(String operation, Map<String, String> args){
+			this.operation = operation;
+			this.args = args;
+		}
+
+		String get(String name){
+			return this.args.get(name);
+		}
+
+		int getInt(String name){
+			String value = this.args.get(name);
+			if (value == null)
+				throw new IllegalArgumentException("Missing " + name);
+			return Integer.parseInt(value.trim());
+		}
+	}//end Command
+
+	private final DBproject _esql;
+	private final int _commitInterval;
+	private final PrintStream _out;
+	//operation -> { count, failed, nanos }
+	private final Map<String, long[]> _stats = new TreeMap<String, long[]>();
+	//cache invalidations of the open transaction, applied once it commits
+	private final List<Runnable> _afterCommit = new ArrayList<Runnable>();
+	private long _commits = 0;
+
+	/**
+	 * @param esql the session running the commands, pinned during run
+	 * @param commitInterval the number of commands per transaction
+	 * @param out receives the result lines and the summary
+	 */
+	public BatchRunner(DBproject esql, int commitInterval, PrintStream out){
+		this._esql = esql;
+		this._commitInterval = Math.max(1, commitInterval);
+		this._out = out;
+	}
+
+	/**
+	 * Method to run all commands of the input.
+	 *
+	 * @param in the commands, one per line
+	 * @return the number of failed commands
+	 * @throws java.io.IOException when the input could not be read
+	 * @throws java.sql.SQLException when a transaction could not be committed
+	 */
+	public long run(BufferedReader in) throws IOException, SQLException {
+		long start = System.nanoTime();
+		long failed = 0;
+		Connection conn = this._esql.pin();
+		try{
+			conn.setAutoCommit(false);
+			this._out.println("line\toperation\tresult\tmillis\tmessage");
+			int pending = 0;
+			int lineNo = 0;
+			String line;
+			while ((line = in.readLine()) != null){
+				++lineNo;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				long begin = System.nanoTime();
+				Command command;
+				try{
+					command = parse(line);
+				}catch (IllegalArgumentException e){
+					report(lineNo, "invalid", false, begin, e.getMessage());
+					++failed;
+					continue;
+				}//end try
+				Savepoint savepoint = conn.setSavepoint();
+				try{
+					String message = execute(command);
+					conn.releaseSavepoint(savepoint);
+					report(lineNo, command.operation, true, begin, message);
+				}catch (SQLException | RuntimeException e){
+					// a lost connection ends the run with the error of the command
+					try{
+						conn.rollback(savepoint);
+					}catch (SQLException e2){
+						e.addSuppressed(e2);
+						throw e;
+					}//end try
+					report(lineNo, command.operation, false, begin, e.getMessage());
+					++failed;
+				}//end try
+				if (++pending == this._commitInterval){
+					commit(conn);
+					pending = 0;
+				}//end if
+			}//end while
+			commit(conn);
+		}catch (IOException | SQLException | RuntimeException e){
+			DBproject.rollback(conn, e);
+			this._afterCommit.clear();
+			throw e;
+		}finally{
+			this._esql.endTransaction(conn);
+		}//end try
+		summary(System.nanoTime() - start);
+		return failed;
+	}//end run
+
+	/*
+	 * runs one command on the pinned connection and returns its message
+	 */
+	String execute(Command c) throws SQLException {
+		DBproject esql = this._esql;
+		switch (c.operation){
+			case "add_doctor":{
+				if (esql.executeQuery(DBproject.FIND_DOCTOR, c.get("name"), c.get("specialty"), c.getInt("did")) == 1)
+					return "Doctor exists";
+				int docID = esql.doctorIds.next(esql);
+				esql.executeUpdate(DBproject.INSERT_DOCTOR, docID, c.get("name"), c.get("specialty"), c.getInt("did"));
+				return "Added doctor " + docID;
+			}
+			case "add_patient":{
+				if (esql.executeQuery(DBproject.FIND_PATIENT, c.get("name"), c.get("gender"), c.getInt("age"), c.get("address"), c.getInt("number_of_appts")) == 1)
+					return "Patient exists";
+				int pid = esql.patientIds.next(esql);
+				esql.executeUpdate(DBproject.INSERT_PATIENT, pid, c.get("name"), c.get("gender"), c.getInt("age"), c.get("address"), c.getInt("number_of_appts"));
+				return "Added patient " + pid;
+			}
+			case "add_appointment":{
+				final String date = c.get("date");
+				if (esql.executeQuery(DBproject.FIND_APPOINTMENT, date, c.get("time_slot"), c.get("status")) == 1)
+					return "Appointment exists";
+				int appID = esql.appointmentIds.next(esql);
+				esql.executeUpdate(DBproject.INSERT_APPOINTMENT, appID, date, c.get("time_slot"), c.get("status"));
+				this._afterCommit.add(() -> DBproject.availability.invalidateDate(date));
+				return "Added appointment " + appID;
+			}
+			case "make_appointment":
+				return booked(BookingEngine.book(esql, c.getInt("pid"), c.getInt("docid"), c.getInt("apptid")));
+			case "book_new_patient":
+				return booked(BookingEngine.bookNewPatient(esql, c.getInt("pid"), c.getInt("docid"), c.getInt("apptid"),
+						c.get("name"), c.get("gender"), c.getInt("age"), c.get("address")));
+			case "cancel_appointment":{
+				final CancelResult result = Waitlist.cancel(esql, c.getInt("apptid"), c.getInt("pid"));
+				if (result.getStatus() == Status.AV)
+					this._afterCommit.add(() -> DBproject.availability.invalidateDate(result.getDate().toString()));
+				return result.getMessage();
+			}
+			case "list_appointments_of_doctor":
+				return rows(QueryResult.collect(esql, DBproject.LIST_APPOINTMENTS_OF_DOCTOR, c.get("start"), c.get("end"), c.getInt("docid")));
+			case "list_available_appointments":
+				// not through the availability cache, the open transaction may not commit
+				return rows(QueryResult.collect(esql, DBproject.LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT, c.get("department"), c.get("date")));
+			case "find_slots":{
+				SlotSearch search = new SlotSearch(Collections.singletonList(c.get("department")), null,
+						LocalDate.parse(c.get("start")), LocalDate.parse(c.get("end")));
+				return search.first(esql, c.getInt("limit")).size() + " slot(s)";
+			}
+			case "list_status_counts":
+				return rows(QueryResult.collect(esql, DBproject.LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR));
+			case "patients_count_with_status":
+				return rows(QueryResult.collect(esql, DBproject.FIND_PATIENTS_COUNT_WITH_STATUS, c.get("status")));
+			default:
+				throw new IllegalArgumentException("Unknown operation " + c.operation);
+		}
+	}//end execute
+
+	private String booked(final BookingResult result){
+		if (result.getOutcome() == BookingResult.Outcome.BOOKED || result.getOutcome() == BookingResult.Outcome.WAITLISTED)
+			this._afterCommit.add(() -> DBproject.availability.invalidateAppointment(result.getAppointmentId()));
+		return result.getMessage();
+	}
+
+	private static String rows(QueryResult result){
+		return result.size() + " row(s)";
+	}
+
+	private void commit(Connection conn) throws SQLException {
+		conn.commit();
+		++this._commits;
+		for (Runnable invalidation : this._afterCommit)
+			invalidation.run();
+		this._afterCommit.clear();
+	}
+
+	private void report(int lineNo, String operation, boolean ok, long begin, String message){
+		long nanos = System.nanoTime() - begin;
+		long[] stats = this._stats.computeIfAbsent(operation, key -> new long[3]);
+		++stats[0];
+		if (!ok)
+			++stats[1];
+		stats[2] += nanos;
+		this._out.println(lineNo + "\t" + operation + "\t" + (ok ? "OK" : "ERROR") + "\t" +
+				String.format("%.2f", nanos / 1e6) + "\t" + String.valueOf(message).replace('\n', ' '));
+	}
+
+	private void summary(long nanos){
+		long count = 0;
+		long failed = 0;
+		this._out.println(String.format("%-32s %10s %8s %10s", "operation", "count", "failed", "avg ms"));
+		for (Map.Entry<String, long[]> entry : this._stats.entrySet()){
+			long[] stats = entry.getValue();
+			this._out.println(String.format("%-32s %10d %8d %10.2f", entry.getKey(), stats[0], stats[1], stats[2] / 1e6 / stats[0]));
+			count += stats[0];
+			failed += stats[1];
+		}//end for
+		this._out.println(String.format("%d operation(s) (%d failed) in %d transaction(s), %.1f s, %.1f operations/s",
+				count, failed, this._commits, nanos / 1e9, count / (nanos / 1e9)));
+	}
+
+	/*
+	 * parses a CSV or JSON command line and names its arguments
+	 */
+	static Command parse(String line){
+		Map<String, String> args = new HashMap<String, String>();
+		String operation;
+		if (line.startsWith("{")){
+			Map<String, String> fields = parseJson(line);
+			operation = fields.get("op");
+			if (operation == null || !OPERATIONS.containsKey(operation))
+				throw new IllegalArgumentException("Unknown operation " + operation);
+			for (String name : OPERATIONS.get(operation))
+				args.put(name, fields.get(name));
+		}else{
+			List<String> fields = parseCsv(line);
+			operation = fields.get(0).trim();
+			String[] names = OPERATIONS.get(operation);
+			if (names == null)
+				throw new IllegalArgumentException("Unknown operation " + operation);
+			if (fields.size() != names.length + 1)
+				throw new IllegalArgumentException(operation + " takes " + names.length + " argument(s): " + String.join(",", names));
+			for (int i = 0; i < names.length; ++i)
+				args.put(names[i], fields.get(i + 1));
+		}//end if
+		return new Command(operation, args);
+	}
+
+	/*
+	 * splits at commas; a field in double quotes may contain commas and "" for a quote
+	 */
+	static List<String> parseCsv(String line){
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i){
+			char c = line.charAt(i);
+			if (quoted){
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+					field.append('"');
+					++i;
+				}else if (c == '"'){
+					quoted = false;
+				}else{
+					field.append(c);
+				}//end if
+			}else if (c == '"'){
+				quoted = true;
+			}else if (c == ','){
+				fields.add(field.toString());
+				field.setLength(0);
+			}else{
+				field.append(c);
+			}//end if
+		}//end for
+		if (quoted)
+			throw new IllegalArgumentException("Unterminated quote");
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/*
+	 * reads a flat JSON object, values are kept as text (null for null)
+	 */
+	static Map<String, String> parseJson(String line){
+		Map<String, String> fields = new HashMap<String, String>();
+		int[] pos = { skip(line, 1) };
+		if (pos[0] < line.length() && line.charAt(pos[0]) == '}')
+			return fields;
+		while (true){
+			if (pos[0] >= line.length() || line.charAt(pos[0]) != '"')
+				throw new IllegalArgumentException("Expected a field name at " + pos[0]);
+			String name = jsonString(line, pos);
+			pos[0] = skip(line, pos[0]);
+			if (pos[0] >= line.length() || line.charAt(pos[0]) != ':')
+				throw new IllegalArgumentException("Expected ':' at " + pos[0]);
+			pos[0] = skip(line, pos[0] + 1);
+			String value;
+			if (pos[0] < line.length() && line.charAt(pos[0]) == '"'){
+				value = jsonString(line, pos);
+			}else{
+				int end = pos[0];
+				while (end < line.length() && ",} \t".indexOf(line.charAt(end)) < 0)
+					++end;
+				value = line.substring(pos[0], end);
+				if (value.isEmpty())
+					throw new IllegalArgumentException("Expected a value at " + pos[0]);
+				if (value.equals("null"))
+					value = null;
+				pos[0] = end;
+			}//end if
+			fields.put(name, value);
+			pos[0] = skip(line, pos[0]);
+			if (pos[0] < line.length() && line.charAt(pos[0]) == ','){
+				pos[0] = skip(line, pos[0] + 1);
+			}else if (pos[0] < line.length() && line.charAt(pos[0]) == '}'){
+				return fields;
+			}else{
+				throw new IllegalArgumentException("Expected ',' or '}' at " + pos[0]);
+			}//end if
+		}//end while
+	}
+
+	private static int skip(String line, int pos){
+		while (pos < line.length() && Character.isWhitespace(line.charAt(pos)))
+			++pos;
+		return pos;
+	}
+
+	/*
+	 * reads the string starting at the quote at pos[0] and moves pos[0] past it
+	 */
+	private static String jsonString(String line, int[] pos){
+		StringBuilder value = new StringBuilder();
+		int i = pos[0] + 1;
+		while (i < line.length() && line.charAt(i) != '"'){
+			char c = line.charAt(i);
+			if (c == '\\' && i + 1 < line.length()){
+				char escaped = line.charAt(++i);
+				switch (escaped){
+					case 'n': value.append('\n'); break;
+					case 't': value.append('\t'); break;
+					case 'r': value.append('\r'); break;
+					case 'b': value.append('\b'); break;
+					case 'f': value.append('\f'); break;
+					case 'u':
+						if (i + 4 >= line.length())
+							throw new IllegalArgumentException("Bad escape at " + i);
+						value.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+						i += 4;
+						break;
+					default: value.append(escaped);
+				}
+			}else{
+				value.append(c);
+			}//end if
+			++i;
+		}//end while
+		if (i >= line.length())
+			throw new IllegalArgumentException("Unterminated string");
+		pos[0] = i + 1;
+		return value.toString();
+	}
+}//end BatchRunner
@@ -0,0 +1,146 @@
+import java.sql.SQLException;
+
+/**
+ * This class books appointments in a single statement.  The status change
+ * of the slot, the has_appointment row and the patient's appointment count
+ * are written together, so they commit or fail as a unit.
+ *
+ * The slot is claimed under its row lock: concurrent bookings of the same
+ * slot queue on the lock and read its status once the lock is granted, so
+ * exactly one of them finds an 'AV' slot, holds it as 'AC', and the others
+ * join its waitlist (booking_queue) as 'WL' in the order they got the lock.
+ * The status change and the count follow the queue insert: a patient
+ * already queued on the slot changes nothing.  The count is incremented in
+ * place, so no increment is lost either.
+ *
+ */
+
+public class BookingEngine{
+	/*
+	 * Locks the slot, queues the patient, then moves the slot to the status
+	 * of the queue row, links it to the doctor and counts it for the
+	 * patient.  Nothing but the lock is written if the patient was queued
+	 * already.
+	 */
+	static final String BOOK =
+		"with locked as (" +
+		" select appnt_ID, adate, status from Appointment where appnt_ID = ? for update" +
+		"), queued as (" +
+		" insert into booking_queue (appt_id, adate, patient_id, status)" +
+		" select appnt_ID, adate, ?, case status when 'AV' then 'AC' else 'WL' end from locked" +
+		" where status in ('AV', 'AC', 'WL')" +
+		" on conflict do nothing" +
+		" returning appt_id, adate, status" +
+		"), slot as (" +
+		" update Appointment a set status = q.status from queued q" +
+		" where a.appnt_ID = q.appt_id and a.adate = q.adate" +
+		" returning a.appnt_ID, a.adate, a.status" +
+		"), booked as (" +
+		" insert into has_appointment (appt_id, doctor_id, adate) select appnt_ID, ?, adate from slot" +
+		" on conflict do nothing" +
+		"), counted as (" +
+		" update Patient set number_of_appts = coalesce(number_of_appts, 0) + 1" +
+		" where patient_ID = ? and exists (select 1 from slot)" +
+		" returning number_of_appts" +
+		")" +
+		" select (select status from locked)," +
+		" (select status from slot)," +
+		" (select number_of_appts from counted)";
+
+	/*
+	 * Same as BOOK for a patient not in the database yet, who is added with
+	 * one appointment if the booking succeeds and none otherwise.
+	 */
+	static final String BOOK_NEW_PATIENT =
+		"with locked as (" +
+		" select appnt_ID, adate, status from Appointment where appnt_ID = ? for update" +
+		"), queued as (" +
+		" insert into booking_queue (appt_id, adate, patient_id, status)" +
+		" select appnt_ID, adate, ?, case status when 'AV' then 'AC' else 'WL' end from locked" +
+		" where status in ('AV', 'AC', 'WL')" +
+		" on conflict do nothing" +
+		" returning appt_id, adate, status" +
+		"), slot as (" +
+		" update Appointment a set status = q.status from queued q" +
+		" where a.appnt_ID = q.appt_id and a.adate = q.adate" +
+		" returning a.appnt_ID, a.adate, a.status" +
+		"), booked as (" +
+		" insert into has_appointment (appt_id, doctor_id, adate) select appnt_ID, ?, adate from slot" +
+		" on conflict do nothing" +
+		"), counted as (" +
+		" insert into Patient select ?, ?, ?, ?, ?, case when exists (select 1 from slot) then 1 else 0 end" +
+		" returning number_of_appts" +
+		")" +
+		" select (select status from locked)," +
+		" (select status from slot)," +
+		" (select number_of_appts from counted)";
+
+	/*
+	 * the row of the booking statements: status before and after, new count
+	 */
+	private static class Claim{
+		Status previous;
+		Status status;
+		int numberOfAppts;
+	}
+
+	// the columns have no unique names, so they are read by position
+	private static final RowMapper.Factory<Claim> CLAIM = rsmd -> rs -> {
+		Claim claim = new Claim();
+		claim.previous = Status.of(rs.getString(1));
+		claim.status = Status.of(rs.getString(2));
+		claim.numberOfAppts = rs.getInt(3);
+		if (rs.wasNull())
+			claim.numberOfAppts = -1;
+		return claim;
+	};
+
+	/**
+	 * Method to book an appointment for an existing patient.
+	 *
+	 * @param esql the session to run the statement on
+	 * @param pid the patient ID
+	 * @param docID the doctor ID
+	 * @param appID the appointment ID
+	 * @return the outcome of the booking
+	 * @throws java.sql.SQLException when the statement failed, e.g. for an unknown doctor
+	 */
+	public static BookingResult book(DBproject esql, int pid, int docID, int appID) throws SQLException {
+		return toResult(appID, esql.executeQueryAndMapFirst(BOOK, CLAIM, appID, pid, docID, pid));
+	}
+
+	/**
+	 * Method to add a patient and book an appointment for them in one step.
+	 *
+	 * @param esql the session to run the statement on
+	 * @param pid the ID of the new patient
+	 * @param docID the doctor ID
+	 * @param appID the appointment ID
+	 * @param name the name of the patient
+	 * @param gender the gender of the patient (M/F)
+	 * @param age the age of the patient
+	 * @param address the address of the patient
+	 * @return the outcome of the booking
+	 * @throws java.sql.SQLException when the statement failed, e.g. for an existing patient ID
+	 */
+	public static BookingResult bookNewPatient(DBproject esql, int pid, int docID, int appID,
+			String name, String gender, int age, String address) throws SQLException {
+		return toResult(appID, esql.executeQueryAndMapFirst(BOOK_NEW_PATIENT, CLAIM,
+				appID, pid, docID, pid, name, gender, age, address));
+	}
+
+	private static BookingResult toResult(int appID, Claim claim){
+		Status previous = claim.previous;
+		Status status = claim.status;
+		if (status == Status.AC)
+			return new BookingResult(BookingResult.Outcome.BOOKED, appID, previous, status, claim.numberOfAppts);
+		if (status == Status.WL)
+			return new BookingResult(BookingResult.Outcome.WAITLISTED, appID, previous, status, claim.numberOfAppts);
+		if (previous == null)
+			return new BookingResult(BookingResult.Outcome.NOT_FOUND, appID, null, null, claim.numberOfAppts);
+		// bookable, so the queue insert found the patient
+		if (previous != Status.PA)
+			return new BookingResult(BookingResult.Outcome.ALREADY_BOOKED, appID, previous, previous, claim.numberOfAppts);
+		return new BookingResult(BookingResult.Outcome.UNAVAILABLE, appID, previous, previous, claim.numberOfAppts);
+	}
+}//end BookingEngine
@@ -0,0 +1,84 @@
+/**
+ * This class holds the outcome of booking an appointment for a patient.
+ *
+ */
+
+public class BookingResult{
+	public enum Outcome{
+		//the slot was available and is now active for the patient
+		BOOKED,
+		//the slot was active or waitlisted and the patient is now on its waitlist
+		WAITLISTED,
+		//the patient holds the slot or waits for it already, nothing changed
+		ALREADY_BOOKED,
+		//the slot is past
+		UNAVAILABLE,
+		//there is no appointment with the given ID
+		NOT_FOUND
+	}
+
+	private final Outcome _outcome;
+	private final int _appointmentId;
+	private final Status _previousStatus;
+	private final Status _status;
+	private final int _numberOfAppts;
+
+	public BookingResult(Outcome outcome, int appointmentId, Status previousStatus, Status status, int numberOfAppts){
+		this._outcome = outcome;
+		this._appointmentId = appointmentId;
+		this._previousStatus = previousStatus;
+		this._status = status;
+		this._numberOfAppts = numberOfAppts;
+	}
+
+	public Outcome getOutcome(){
+		return this._outcome;
+	}
+
+	public int getAppointmentId(){
+		return this._appointmentId;
+	}
+
+	/**
+	 * @return the status the appointment had before the booking, null if not found
+	 */
+	public Status getPreviousStatus(){
+		return this._previousStatus;
+	}
+
+	/**
+	 * @return the status of the appointment after the booking, null if not found
+	 */
+	public Status getStatus(){
+		return this._status;
+	}
+
+	/**
+	 * @return the number of appointments of the patient after the booking,
+	 * -1 if it was not changed
+	 */
+	public int getNumberOfAppts(){
+		return this._numberOfAppts;
+	}
+
+	/**
+	 * @return the message shown to the user for this outcome
+	 */
+	public String getMessage(){
+		switch (this._outcome){
+			case BOOKED: return "Appointment is Available. Adding to list!";
+			case WAITLISTED:
+				if (this._previousStatus == Status.WL)
+					return "Appointment is WaitListed. Adding to Waitlist!";
+				return "Appointment is Active. Adding to Waitlist!";
+			case ALREADY_BOOKED: return "Patient is already booked on this Appointment!";
+			case NOT_FOUND: return "Appointment does not exists!";
+			default:
+				return "Appointment is Pasted. Unable to Make!";
+		}
+	}
+
+	public String toString(){
+		return this._outcome + " appointment " + this._appointmentId + " (" + this._previousStatus + " -> " + this._status + ")";
+	}
+}//end BookingResult
@@ -0,0 +1,288 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is the asynchronous API of the menu operations: every call
+ * returns at once with a CompletableFuture and the operation runs on its
+ * own thread, a virtual thread where the JVM has them (Java 21 and later).
+ * Older JVMs run the operations on a fixed pool of as many platform threads
+ * as may run at once, the others wait in its queue without a thread.
+ *
+ * A service over a ConnectionPool runs each operation as its own pooled
+ * session, so many callers can have operations in flight at once.  At most
+ * maxInFlight operations are accepted at a time; further calls block the
+ * caller until one completes, which pushes back on producers faster than
+ * the database.  Of the accepted operations at most as many run as the
+ * pool has connections, the others wait on a semaphore rather than in the
+ * pool, so a waiting virtual thread does not hold on to its carrier.
+ *
+ * A service over a single session (what the menu functions use) runs one
+ * operation at a time on that session.  The listings return their rows
+ * collected in a QueryResult, so the menu prints options 5, 7 and 8 by
+ * streaming them itself rather than through the service.
+ *
+ */
+
+public class BookingService{
+	public static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+
+	/*
+	 * one operation, run on a session of the service
+	 */
+	private interface Operation<T>{
+		T run (DBproject esql) throws SQLException;
+	}
+
+	//the session every operation runs on, null over a pool
+	private final DBproject _session;
+	private final ConnectionPool _pool;
+	private final ExecutorService _executor;
+	//accepted operations, bounds the callers
+	private final int _maxInFlight;
+	private final Semaphore _inFlight;
+	//running operations, bounds the connections in use
+	private final Semaphore _running;
+
+	/**
+	 * Creates a service running each operation as its own session of the pool.
+	 *
+	 * @param pool the pool the sessions borrow their connections from
+	 * @param maxInFlight the number of operations accepted at a time
+	 */
+	public BookingService(ConnectionPool pool, int maxInFlight){
+		this._session = null;
+		this._pool = pool;
+		this._executor = newExecutor(pool.getMaxSize());
+		this._maxInFlight = maxInFlight;
+		this._inFlight = new Semaphore(maxInFlight);
+		this._running = new Semaphore(pool.getMaxSize());
+	}
+
+	/**
+	 * Creates a service running one operation at a time on the given session.
+	 *
+	 * @param esql the session
+	 */
+	public BookingService(DBproject esql){
+		this._session = esql;
+		this._pool = null;
+		this._executor = newExecutor(1);
+		this._maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+		this._inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+		this._running = new Semaphore(1);
+	}
+
+	/**
+	 * Method to book an appointment for an existing patient, see BookingEngine.
+	 */
+	public CompletableFuture<BookingResult> book(int pid, int docID, int appID){
+		return submit(esql -> invalidate(BookingEngine.book(esql, pid, docID, appID)));
+	}
+
+	/**
+	 * Method to add a patient and book an appointment for them in one step,
+	 * see BookingEngine.
+	 */
+	public CompletableFuture<BookingResult> bookNewPatient(int pid, int docID, int appID, String name, String gender, int age, String address){
+		return submit(esql -> invalidate(BookingEngine.bookNewPatient(esql, pid, docID, appID, name, gender, age, address)));
+	}
+
+	/**
+	 * Method to cancel a patient's booking and promote the next waiter, see
+	 * Waitlist.
+	 */
+	public CompletableFuture<CancelResult> cancel(int pid, int appID){
+		return submit(esql -> invalidate(Waitlist.cancel(esql, appID, pid)));
+	}
+
+	public CompletableFuture<QueryResult> patient(int pid){
+		return submit(esql -> QueryResult.collect(esql, DBproject.PATIENT_BY_ID, pid));
+	}
+
+	/**
+	 * Method to look up a doctor, in the reference data if it is loaded
+	 * there (without a database call) and in the database otherwise.
+	 */
+	public CompletableFuture<QueryResult> doctor(int docID){
+		Doctor doctor = DBproject.reference.doctor(docID);
+		if (doctor != null)
+			return CompletableFuture.completedFuture(new QueryResult(Doctor.COLUMNS, Collections.singletonList(doctor.toRow())));
+		return submit(esql -> QueryResult.collect(esql, DBproject.DOCTOR_BY_ID, docID));
+	}
+
+	public CompletableFuture<QueryResult> appointment(int appID){
+		return submit(esql -> QueryResult.collect(esql, DBproject.APPOINTMENT_BY_ID, appID));
+	}
+
+	/**
+	 * Method to list the active and available appointments of a doctor (5).
+	 */
+	public CompletableFuture<QueryResult> listAppointmentsOfDoctor(int docID, String startDate, String endDate){
+		return submit(esql -> QueryResult.collect(esql, DBproject.LIST_APPOINTMENTS_OF_DOCTOR, startDate, endDate, docID));
+	}
+
+	/**
+	 * Method to list the available appointments of a department on a date
+	 * (6), served from the availability cache when possible.
+	 */
+	public CompletableFuture<QueryResult> listAvailableAppointmentsOfDepartment(String departmentName, String date){
+		return submit(esql -> DBproject.availability.get(esql, departmentName, date));
+	}
+
+	/**
+	 * Method to find the earliest available slots of a date range, see
+	 * SlotSearch.
+	 *
+	 * @param after the last slot of the previous page, null for the first page
+	 */
+	public CompletableFuture<List<SlotSearch.Slot>> findSlots(SlotSearch search, SlotSearch.Slot after, int limit){
+		return submit(esql -> after == null ? search.first(esql, limit) : search.next(esql, after, limit));
+	}
+
+	/**
+	 * Method to count the appointments per doctor and status (7).
+	 */
+	public CompletableFuture<QueryResult> listStatusNumberOfAppointmentsPerDoctor(){
+		return submit(esql -> QueryResult.collect(esql, DBproject.LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR));
+	}
+
+	/**
+	 * Method to count the appointments per doctor with the given status (8).
+	 */
+	public CompletableFuture<QueryResult> findPatientsCountWithStatus(String status){
+		return submit(esql -> QueryResult.collect(esql, DBproject.FIND_PATIENTS_COUNT_WITH_STATUS, status));
+	}
+
+	/**
+	 * @return the number of operations accepted and not completed yet
+	 */
+	public int getInFlight(){
+		return this._maxInFlight - this._inFlight.availablePermits();
+	}
+
+	/**
+	 * Method to stop accepting operations and wait for the accepted ones.
+	 */
+	public void close(){
+		this._executor.shutdown();
+		try{
+			this._executor.awaitTermination(1, TimeUnit.MINUTES);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+	}
+
+	/**
+	 * Method to wait for an operation and return its result, with the
+	 * exception the operation failed with rather than a wrapper.
+	 *
+	 * @param future the operation
+	 * @return the result of the operation
+	 * @throws java.lang.Exception the exception of the operation
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws Exception {
+		try{
+			return future.get();
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}//end try
+	}
+
+	/*
+	 * drops the cached availability of a booked slot
+	 */
+	private static BookingResult invalidate(BookingResult result){
+		if (result.getOutcome() == BookingResult.Outcome.BOOKED || result.getOutcome() == BookingResult.Outcome.WAITLISTED)
+			DBproject.availability.invalidateAppointment(result.getAppointmentId());
+		return result;
+	}
+
+	/*
+	 * drops the cached availability of the date of a slot available again
+	 */
+	private static CancelResult invalidate(CancelResult result){
+		if (result.getStatus() == Status.AV)
+			DBproject.availability.invalidateDate(result.getDate().toString());
+		return result;
+	}
+
+	/*
+	 * waits for a free place (backpressure), then runs the operation on a
+	 * thread of the executor once a connection is free for it
+	 */
+	private <T> CompletableFuture<T> submit(Operation<T> operation){
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		try{
+			this._inFlight.acquire();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}//end try
+		try{
+			this._executor.execute(() -> {
+				try{
+					this._running.acquire();
+					try{
+						future.complete(run(operation));
+					}finally{
+						this._running.release();
+					}//end try
+				}catch (Throwable e){
+					future.completeExceptionally(e);
+				}finally{
+					this._inFlight.release();
+				}//end try
+			});
+		}catch (RejectedExecutionException e){
+			this._inFlight.release();
+			future.completeExceptionally(e);
+		}//end try
+		return future;
+	}
+
+	private <T> T run(Operation<T> operation) throws SQLException {
+		if (this._session != null)
+			return operation.run(this._session);
+		DBproject esql = new DBproject(this._pool, new BufferedReader(new StringReader("")), new PrintStream(OutputStream.nullOutputStream()));
+		try{
+			return operation.run(esql);
+		}finally{
+			esql.cleanup();
+		}//end try
+	}
+
+	/*
+	 * one virtual thread per operation where available (Java 21 and later),
+	 * found by reflection so the code still builds and runs on Java 17;
+	 * there, as many platform threads as operations may run at once, so no
+	 * thread blocks on _running
+	 */
+	static ExecutorService newExecutor(int threads){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (ReflectiveOperationException | RuntimeException e){
+			return Executors.newFixedThreadPool(threads, r -> {
+				Thread thread = new Thread(r, "booking-service");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}//end try
+	}
+}//end BookingService
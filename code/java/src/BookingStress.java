@@ -0,0 +1,217 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class checks BookingEngine under contention: it adds an available
+ * appointment and as many patients as threads, lets every thread book the
+ * appointment for its own patient at the same moment, each on its own
+ * pooled session, and checks that exactly one patient holds it ('AC'), the
+ * others wait for it ('WL') and every patient is counted exactly once.  A
+ * second round books the same appointment for the same patients again,
+ * which must change nothing.  The rows it added are deleted at the end.
+ *
+ */
+
+public class BookingStress{
+	static final String TIME_SLOT = "8:00-10:00";
+	static final String FIRST_DOCTOR = "select doctor_ID from Doctor order by doctor_ID limit 1";
+	// one row, so all numbers are read from the same snapshot
+	static final String STATE =
+		"select (select status from Appointment where appnt_ID = ?)," +
+		" (select count(*) from booking_queue where appt_id = ? and status = 'AC')," +
+		" (select count(*) from booking_queue where appt_id = ? and status = 'WL')," +
+		" (select count(*) from has_appointment where appt_id = ?)," +
+		" (select count(*) from Patient where patient_ID = any(?) and number_of_appts = 1)";
+	static final String DELETE_QUEUE = "delete from booking_queue where appt_id = ?";
+	static final String DELETE_LINKS = "delete from has_appointment where appt_id = ?";
+	static final String DELETE_APPOINTMENT = "delete from Appointment where appnt_ID = ?";
+	static final String DELETE_PATIENTS = "delete from Patient where patient_ID = any(?)";
+
+	private final ConnectionPool _pool;
+	private final int _threads;
+
+	/**
+	 * @param pool the pool of the booking sessions, with a connection per thread
+	 * @param threads the number of concurrent bookings
+	 */
+	public BookingStress(ConnectionPool pool, int threads){
+		this._pool = pool;
+		this._threads = threads;
+	}
+
+	/**
+	 * Method to book the appointment for every patient at once, one thread
+	 * and session each.
+	 *
+	 * @param docID the doctor ID
+	 * @param appID the appointment ID
+	 * @param pids the patient IDs, one booking each
+	 * @return the number of bookings per outcome
+	 * @throws java.sql.SQLException when a booking failed
+	 */
+	public Map<BookingResult.Outcome, Integer> bookAll(final int docID, final int appID, int[] pids) throws SQLException {
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<BookingResult>> bookings = new ArrayList<Future<BookingResult>>();
+		try{
+			for (final int pid : pids){
+				bookings.add(workers.submit(() -> {
+					DBproject esql = new DBproject(this._pool, new BufferedReader(new StringReader("")), new PrintStream(OutputStream.nullOutputStream()));
+					try{
+						start.await();
+						return BookingEngine.book(esql, pid, docID, appID);
+					}finally{
+						esql.cleanup();
+					}//end try
+				}));
+			}//end for
+			start.countDown();
+			Map<BookingResult.Outcome, Integer> outcomes = new EnumMap<BookingResult.Outcome, Integer>(BookingResult.Outcome.class);
+			for (Future<BookingResult> booking : bookings)
+				outcomes.merge(await(booking).getOutcome(), 1, Integer::sum);
+			return outcomes;
+		}finally{
+			workers.shutdown();
+		}//end try
+	}
+
+	/**
+	 * Method to compare the state of the appointment with the expected one.
+	 *
+	 * @param esql the session to run the query on
+	 * @param appID the appointment ID
+	 * @param pids the patient IDs that booked it
+	 * @return the differences, empty if consistent
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public List<String> check(DBproject esql, int appID, int[] pids) throws SQLException {
+		List<String> record = esql.executeQueryAndReturnResult(STATE, appID, appID, appID, appID, pids).get(0);
+		List<String> differences = new ArrayList<String>();
+		String status = this._threads == 1 ? "AC" : "WL";
+		expect(differences, "appointment status", status, record.get(0));
+		expect(differences, "holders", "1", record.get(1));
+		expect(differences, "waiters", Integer.toString(this._threads - 1), record.get(2));
+		expect(differences, "doctor links", "1", record.get(3));
+		expect(differences, "patients counted once", Integer.toString(this._threads), record.get(4));
+		return differences;
+	}
+
+	private static void expect(List<String> differences, String what, String expected, String actual){
+		if (!expected.equals(actual == null ? null : actual.trim()))
+			differences.add(what + ": expected " + expected + ", actual " + actual);
+	}
+
+	/*
+	 * the outcome counts of a round, with those expected
+	 */
+	private static void expect(List<String> differences, String round, Map<BookingResult.Outcome, Integer> outcomes, Map<BookingResult.Outcome, Integer> expected){
+		if (!outcomes.equals(expected))
+			differences.add(round + ": expected " + expected + ", actual " + outcomes);
+	}
+
+	private static BookingResult await(Future<BookingResult> booking) throws SQLException {
+		try{
+			return booking.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while booking");
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException)
+				throw (SQLException) cause;
+			throw new SQLException(cause);
+		}//end try
+	}
+
+	/**
+	 * Books one new appointment from the given number of threads at once
+	 * and checks the result (exit status 1 if it is not consistent).
+	 *
+	 * @param args <dbname> <port> <user> <threads>
+	 */
+	public static void main(String[] args){
+		if (args.length != 4){
+			System.err.println("Usage: java [-classpath <classpath>] " + BookingStress.class.getName() +
+					" <dbname> <port> <user> <threads>");
+			return;
+		}//end if
+		int threads = Integer.parseInt(args[3]);
+		DBproject esql = null;
+		ConnectionPool pool = null;
+		int appID = -1;
+		int[] pids = new int[0];
+		//patients added so far
+		int added = 0;
+		int status = 0;
+		try{
+			esql = new DBproject(args[0], args[1], args[2], "");
+			pool = new ConnectionPool(DBproject.connectionUrl(args[0], args[1]), DBproject.connectionProperties(args[2], ""),
+					0, threads, SessionServer.IDLE_TIMEOUT_MILLIS, SessionServer.BORROW_TIMEOUT_MILLIS);
+			Integer docID = esql.executeQueryAndMapFirst(FIRST_DOCTOR, RowMapper.FIRST_INT, DBproject.NO_PARAMS);
+			if (docID == null)
+				throw new SQLException("No doctor to book with");
+			appID = esql.appointmentIds.next(esql);
+			esql.executeUpdate(DBproject.INSERT_APPOINTMENT, appID, LocalDate.now().toString(), TIME_SLOT, "AV");
+			pids = new int[threads];
+			for (; added < threads; ++added){
+				pids[added] = esql.patientIds.next(esql);
+				esql.executeUpdate(DBproject.INSERT_PATIENT, pids[added], "Stress " + added, "F", 30, "BookingStress", 0);
+			}//end for
+
+			BookingStress stress = new BookingStress(pool, threads);
+			List<String> differences = new ArrayList<String>();
+			Map<BookingResult.Outcome, Integer> expected = new EnumMap<BookingResult.Outcome, Integer>(BookingResult.Outcome.class);
+			expected.put(BookingResult.Outcome.BOOKED, 1);
+			if (threads > 1)
+				expected.put(BookingResult.Outcome.WAITLISTED, threads - 1);
+			long start = System.nanoTime();
+			expect(differences, "first round", stress.bookAll(docID, appID, pids), expected);
+			System.out.println(String.format("Booked appointment %d from %d threads in %.1f ms", appID, threads, (System.nanoTime() - start) / 1e6));
+			differences.addAll(stress.check(esql, appID, pids));
+			// booking again must change nothing
+			expected.clear();
+			expected.put(BookingResult.Outcome.ALREADY_BOOKED, threads);
+			expect(differences, "second round", stress.bookAll(docID, appID, pids), expected);
+			differences.addAll(stress.check(esql, appID, pids));
+			for (String difference : differences)
+				System.out.println(difference);
+			System.out.println(differences.isEmpty() ? "Bookings are consistent" : differences.size() + " check(s) failed");
+			status = differences.isEmpty() ? 0 : 1;
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			status = 1;
+		}finally{
+			if (esql != null){
+				try{
+					if (appID >= 0){
+						esql.executeUpdate(DELETE_QUEUE, appID);
+						esql.executeUpdate(DELETE_LINKS, appID);
+						esql.executeUpdate(DELETE_APPOINTMENT, appID);
+					}//end if
+					if (added > 0)
+						esql.executeUpdate(DELETE_PATIENTS, (Object) Arrays.copyOf(pids, added));
+				}catch (SQLException e){
+					System.err.println("Unable to delete the rows of the test: " + e.getMessage());
+				}//end try
+				esql.cleanup();
+			}//end if
+			if (pool != null)
+				pool.close();
+		}//end try
+		System.exit(status);
+	}
+}//end BookingStress
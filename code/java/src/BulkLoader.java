@@ -0,0 +1,447 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads data files in the format of code/data/*.csv through
+ * COPY FROM STDIN, so it needs neither superuser rights nor access to the
+ * server's file system.  Files are streamed, checked row by row against the
+ * column types, the calendar and the _GENDER/_STATUS domains, and sent in
+ * batches of BATCH_ROWS rows, each batch committing on its own.  Tables
+ * that do not depend on each other are loaded in parallel, one connection
+ * each, level by level in foreign key order.
+ *
+ * The link files (searches, schedules, has_appointment) have no adate,
+ * which the partitioned schema of partition.sql needs to route a row.  They
+ * are copied into a temporary table and inserted from there with the date
+ * of their appointment, so the same files load into both schemas.
+ *
+ */
+
+public class BulkLoader{
+	//rows sent per COPY, each COPY commits on its own
+	static final int BATCH_ROWS = 100000;
+	//bytes buffered before they are written to the COPY stream
+	static final int BUFFER_SIZE = 64 * 1024;
+	//rejected rows reported per table
+	static final int MAX_REPORTED_REJECTS = 10;
+
+	//column kinds used to validate rows on the client
+	static final char INT = 'I';
+	static final char TEXT = 'S';
+	static final char DATE = 'D';
+	static final char GENDER = 'G';
+	static final char STATUS = 'T';
+
+	//dates of the data files, e.g. 1/13/2020; ISO dates are taken too
+	static final DateTimeFormatter INPUT_DATE = DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+	/**
+	 * This class describes one table: its data file, its columns and its
+	 * level in the foreign key order (a table only references tables of
+	 * lower levels).
+	 */
+	public static class Table{
+		public final String name;
+		public final String file;
+		public final String[] columns;
+		final String kinds;
+		public final int level;
+		//the column referencing Appointment of a link, whose adate is looked up
+		final String appointment;
+
+		Table(String name, String file, String kinds, int level, String... columns){
+			this(name, file, kinds, level, null, columns);
+		}
+
+		Table(String name, String file, String kinds, int level, String appointment, String[] columns){
+			this.name = name;
+			this.file = file;
+			this.kinds = kinds;
+			this.level = level;
+			this.appointment = appointment;
+			this.columns = columns;
+		}
+
+		String copySql(){
+			String target = this.appointment == null ? this.name : stage();
+			return "COPY " + target + " (" + String.join(", ", this.columns) + ") FROM STDIN WITH DELIMITER ','";
+		}
+
+		String stage(){
+			return this.name + "_stage";
+		}
+
+		// without the NOT NULL of adate, dropped with the batch
+		String createStageSql(){
+			return "CREATE TEMP TABLE " + stage() + " ON COMMIT DROP AS SELECT " + String.join(", ", this.columns) + " FROM " + this.name + " WITH NO DATA";
+		}
+
+		// rows of unknown appointments are left out, and counted as rejected
+		String moveStagedSql(){
+			return "INSERT INTO " + this.name + " (" + String.join(", ", this.columns) + ", adate)" +
+				" SELECT s." + String.join(", s.", this.columns) + ", a.adate FROM " + stage() + " s" +
+				" JOIN Appointment a ON a.appnt_ID = s." + this.appointment;
+		}
+	}//end Table
+
+	/**
+	 * All tables of create.sql in foreign key order.
+	 */
+	public static final Table[] TABLES = {
+		new Table("Hospital", "hospital.csv", "IS", 0, "hospital_ID", "name"),
+		new Table("Patient", "patient.csv", "ISGISI", 0, "patient_ID", "name", "gtype", "age", "address", "number_of_appts"),
+		new Table("Appointment", "appointment.csv", "IDST", 0, "appnt_ID", "adate", "time_slot", "status"),
+		new Table("Department", "department.csv", "ISI", 1, "dept_ID", "name", "hid"),
+		new Table("Staff", "staff.csv", "ISI", 1, "staff_ID", "name", "hid"),
+		new Table("Doctor", "doctor.csv", "ISSI", 2, "doctor_ID", "name", "specialty", "did"),
+		new Table("request_maintenance", "request_maintenance.csv", "ISSII", 3, "patient_per_hour", "dept_name", "time_slot", "did", "sid"),
+		new Table("searches", "searches.csv", "III", 3, "aid", new String[] {"hid", "pid", "aid"}),
+		new Table("schedules", "schedules.csv", "II", 3, "appt_id", new String[] {"appt_id", "staff_id"}),
+		new Table("has_appointment", "has_appointment.csv", "II", 3, "appt_id", new String[] {"appt_id", "doctor_id"}),
+	};
+
+	/*
+	 * moves the ID sequences of create.sql past the loaded rows
+	 */
+	static final String[] RESET_SEQUENCES = {
+		"SELECT setval('doctor_id_seq', COALESCE(MAX(doctor_ID), -1) + 1, false) FROM Doctor",
+		"SELECT setval('patient_id_seq', COALESCE(MAX(patient_ID), -1) + 1, false) FROM Patient",
+		"SELECT setval('appointment_id_seq', COALESCE(MAX(appnt_ID), -1) + 1, false) FROM Appointment",
+	};
+
+	/**
+	 * This class holds the counts of one table load.
+	 */
+	public static class Result{
+		public final String table;
+		public long rows = 0;
+		public long rejected = 0;
+		public long nanos = 0;
+
+		Result(String table){
+			this.table = table;
+		}
+
+		public double rowsPerSecond(){
+			return this.nanos == 0 ? 0 : this.rows * 1e9 / this.nanos;
+		}
+
+		public String toString(){
+			return String.format("%-20s %10d rows %8d rejected %12.0f rows/s", this.table, this.rows, this.rejected, rowsPerSecond());
+		}
+	}//end Result
+
+	/**
+	 * This interface opens the input of a table, e.g. a file or a generator.
+	 */
+	public interface Source{
+		Reader open(Table table) throws IOException;
+	}
+
+	private final ConnectionPool _pool;
+
+	/**
+	 * @param pool the pool the loads borrow their connections from, at
+	 * most as many tables are loaded at once as it allows
+	 */
+	public BulkLoader(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to load all tables from the files of a directory.
+	 *
+	 * @param dir the directory with the data files
+	 * @return the results per table, in load order
+	 */
+	public List<Result> loadDirectory(final File dir) throws SQLException, IOException {
+		return loadAll(table -> new InputStreamReader(new FileInputStream(new File(dir, table.file)), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Method to load all tables level by level.  The tables of a level are
+	 * loaded in parallel, a level starts once the previous one is done.
+	 *
+	 * @param source opens the input of each table
+	 * @return the results per table, in load order
+	 */
+	public List<Result> loadAll(final Source source) throws SQLException, IOException {
+		List<Result> results = new ArrayList<Result>();
+		ExecutorService workers = Executors.newFixedThreadPool(this._pool.getMaxSize());
+		try{
+			int maxLevel = 0;
+			for (Table table : TABLES)
+				maxLevel = Math.max(maxLevel, table.level);
+			for (int level = 0; level <= maxLevel; ++level){
+				List<Future<Result>> loads = new ArrayList<Future<Result>>();
+				for (final Table table : TABLES){
+					if (table.level == level){
+						loads.add(workers.submit(() -> {
+							try (Reader in = source.open(table)){
+								return load(table, in);
+							}
+						}));
+					}//end if
+				}//end for
+				for (Future<Result> load : loads)
+					results.add(await(load));
+			}//end for
+		}finally{
+			workers.shutdown();
+		}//end try
+		resetSequences();
+		return results;
+	}//end loadAll
+
+	/**
+	 * Method to load the rows read from the input into a table.
+	 *
+	 * @param table the table to load
+	 * @param input rows in the format of the data files
+	 * @return the number of loaded and rejected rows
+	 */
+	public Result load(Table table, Reader input) throws SQLException, IOException {
+		Result result = new Result(table.name);
+		long start = System.nanoTime();
+		BufferedReader in = new BufferedReader(input, BUFFER_SIZE);
+		DBConnection conn = this._pool.borrow();
+		try{
+			CopyManager copy = conn.connection.unwrap(PGConnection.class).getCopyAPI();
+			StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 1024);
+			CopyIn copyIn = null;
+			long lineNumber = 0;
+			int batchRows = 0;
+			try{
+				String line;
+				while ((line = in.readLine()) != null){
+					++lineNumber;
+					if (line.isEmpty())
+						continue;
+					String error = validate(table, line);
+					if (error != null){
+						if (++result.rejected <= MAX_REPORTED_REJECTS)
+							System.err.println(table.name + " line " + lineNumber + " rejected: " + error);
+						continue;
+					}//end if
+					if (copyIn == null)
+						copyIn = begin(conn, table, copy);
+					buffer.append(line).append('\n');
+					++batchRows;
+					if (buffer.length() >= BUFFER_SIZE)
+						write(copyIn, buffer);
+					if (batchRows == BATCH_ROWS){
+						write(copyIn, buffer);
+						end(conn, table, copyIn, result);
+						copyIn = null;
+						batchRows = 0;
+					}//end if
+				}//end while
+				if (copyIn != null){
+					write(copyIn, buffer);
+					end(conn, table, copyIn, result);
+					copyIn = null;
+				}//end if
+			}finally{
+				if (copyIn != null && copyIn.isActive())
+					copyIn.cancelCopy();
+			}//end try
+		}finally{
+			this._pool.release(conn);
+		}//end try
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}//end load
+
+	/*
+	 * starts the COPY of a batch; a link batch runs in a transaction with
+	 * its staging table
+	 */
+	private static CopyIn begin(DBConnection conn, Table table, CopyManager copy) throws SQLException {
+		if (table.appointment != null){
+			// the pool restores auto-commit when the connection is released
+			conn.connection.setAutoCommit(false);
+			try (Statement create = conn.connection.createStatement()){
+				create.execute(table.createStageSql());
+			}
+		}//end if
+		return copy.copyIn(table.copySql());
+	}
+
+	/*
+	 * ends the COPY of a batch, moving the staged links with their dates
+	 */
+	private static void end(DBConnection conn, Table table, CopyIn copyIn, Result result) throws SQLException {
+		long copied = copyIn.endCopy();
+		if (table.appointment == null){
+			result.rows += copied;
+			return;
+		}//end if
+		long moved;
+		try (Statement move = conn.connection.createStatement()){
+			moved = move.executeUpdate(table.moveStagedSql());
+		}
+		conn.connection.commit();
+		result.rows += moved;
+		if (moved < copied){
+			result.rejected += copied - moved;
+			System.err.println(table.name + ": " + (copied - moved) + " rows rejected: appointment not found");
+		}//end if
+	}
+
+	/*
+	 * returns why the line does not fit the table, or null if it does
+	 */
+	static String validate(Table table, String line){
+		int column = 0;
+		int from = 0;
+		while (true){
+			int to = line.indexOf(',', from);
+			if (to < 0)
+				to = line.length();
+			if (column == table.columns.length)
+				return "more than " + table.columns.length + " values";
+			String value = line.substring(from, to);
+			switch (table.kinds.charAt(column)){
+				case INT:
+					if (!isInteger(value))
+						return table.columns[column] + " '" + value + "' is not an integer";
+					break;
+				case DATE:
+					if (!isDate(value))
+						return table.columns[column] + " '" + value + "' is not a date";
+					break;
+				case GENDER:
+					if (!value.equals("F") && !value.equals("M"))
+						return table.columns[column] + " '" + value + "' is not in _GENDER";
+					break;
+				case STATUS:
+					if (!value.equals("PA") && !value.equals("AC") && !value.equals("AV") && !value.equals("WL"))
+						return table.columns[column] + " '" + value + "' is not in _STATUS";
+					break;
+				default:
+					break;
+			}
+			++column;
+			if (to == line.length())
+				break;
+			from = to + 1;
+		}//end while
+		if (column < table.columns.length)
+			return "only " + column + " of " + table.columns.length + " values";
+		return null;
+	}//end validate
+
+	private static boolean isInteger(String value){
+		int start = value.startsWith("-") ? 1 : 0;
+		if (value.length() == start || value.length() > 11)
+			return false;
+		for (int i = start; i < value.length(); ++i){
+			if (!Character.isDigit(value.charAt(i)))
+				return false;
+		}//end for
+		long parsed = Long.parseLong(value);
+		return parsed >= Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE;
+	}
+
+	private static boolean isDate(String value){
+		try{
+			LocalDate.parse(value, value.indexOf('/') >= 0 ? INPUT_DATE : DateTimeFormatter.ISO_LOCAL_DATE);
+			return true;
+		}catch (DateTimeParseException e){
+			return false;
+		}//end try
+	}
+
+	private static void write(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+		byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+		copyIn.writeToCopy(bytes, 0, bytes.length);
+		buffer.setLength(0);
+	}
+
+	private void resetSequences() throws SQLException {
+		DBConnection conn = this._pool.borrow();
+		try{
+			for (String sql : RESET_SEQUENCES)
+				conn.statements.prepare(sql).execute();
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+
+	private static Result await(Future<Result> load) throws SQLException, IOException {
+		try{
+			return load.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while loading");
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException)
+				throw (SQLException) cause;
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new SQLException(cause);
+		}//end try
+	}
+
+	/**
+	 * Method to print the results and the overall throughput.
+	 */
+	public static void report(List<Result> results, long nanos){
+		long rows = 0;
+		for (Result result : results){
+			System.out.println(result);
+			rows += result.rows;
+		}//end for
+		System.out.println(String.format("%-20s %10d rows in %.1f s, %.0f rows/s", "total", rows, nanos / 1e9, rows * 1e9 / Math.max(nanos, 1)));
+	}
+
+	/**
+	 * Loads the data files of a directory into an empty schema created by
+	 * create.sql (without its COPY statements).
+	 *
+	 * @param args <dbname> <port> <user> <data dir> [<parallel loads>]
+	 */
+	public static void main(String[] args){
+		if (args.length != 4 && args.length != 5){
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName() +
+					" <dbname> <port> <user> <data dir> [<parallel loads>]");
+			return;
+		}//end if
+		int parallel = args.length == 5 ? Integer.parseInt(args[4]) : 4;
+		ConnectionPool pool = null;
+		try{
+			pool = new ConnectionPool(DBproject.connectionUrl(args[0], args[1]), DBproject.connectionProperties(args[2], ""),
+					0, parallel, SessionServer.IDLE_TIMEOUT_MILLIS, SessionServer.BORROW_TIMEOUT_MILLIS);
+			long start = System.nanoTime();
+			List<Result> results = new BulkLoader(pool).loadDirectory(new File(args[3]));
+			report(results, System.nanoTime() - start);
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (pool != null)
+				pool.close();
+		}//end try
+	}
+}//end BulkLoader
@@ -0,0 +1,83 @@
+import java.time.LocalDate;
+
+/**
+ * This class holds the outcome of cancelling a patient's booking of an
+ * appointment.
+ *
+ */
+
+public class CancelResult{
+	public enum Outcome{
+		//the patient held the appointment or waited for it and no longer does
+		CANCELLED,
+		//the patient is not in the queue of the appointment
+		NOT_FOUND
+	}
+
+	private final Outcome _outcome;
+	private final int _appointmentId;
+	private final int _patientId;
+	private final LocalDate _date;
+	private final Status _status;
+	private final int _promotedPatientId;
+
+	public CancelResult(Outcome outcome, int appointmentId, int patientId, LocalDate date, Status status, int promotedPatientId){
+		this._outcome = outcome;
+		this._appointmentId = appointmentId;
+		this._patientId = patientId;
+		this._date = date;
+		this._status = status;
+		this._promotedPatientId = promotedPatientId;
+	}
+
+	public Outcome getOutcome(){
+		return this._outcome;
+	}
+
+	public int getAppointmentId(){
+		return this._appointmentId;
+	}
+
+	public int getPatientId(){
+		return this._patientId;
+	}
+
+	/**
+	 * @return the date of the appointment, null if not found
+	 */
+	public LocalDate getDate(){
+		return this._date;
+	}
+
+	/**
+	 * @return the status of the appointment after the cancellation, null if not found
+	 */
+	public Status getStatus(){
+		return this._status;
+	}
+
+	/**
+	 * @return the patient promoted from the waitlist to the appointment,
+	 * -1 if none was
+	 */
+	public int getPromotedPatientId(){
+		return this._promotedPatientId;
+	}
+
+	/**
+	 * @return the message shown to the user for this outcome
+	 */
+	public String getMessage(){
+		if (this._outcome == Outcome.NOT_FOUND)
+			return "Patient is not booked on this appointment!";
+		if (this._promotedPatientId >= 0)
+			return "Appointment is Cancelled. Patient " + this._promotedPatientId + " moved up from the Waitlist!";
+		if (this._status == Status.AV)
+			return "Appointment is Cancelled. Appointment is Available again!";
+		return "Appointment is Cancelled.";
+	}
+
+	public String toString(){
+		return this._outcome + " appointment " + this._appointmentId + " of patient " + this._patientId + " (" + this._status + ")";
+	}
+}//end CancelResult
@@ -0,0 +1,136 @@
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class stops the sessions from sending statements to a database
+ * that keeps failing.  After failureThreshold consecutive failures
+ * (connection errors and query timeouts) the circuit opens and every
+ * statement fails at once for openMillis, instead of waiting for its own
+ * timeout and retries; then a single statement is let through to probe
+ * the database, which closes the circuit if it succeeds and opens it again
+ * otherwise.
+ *
+ * Statements that succeed while the circuit is closed only read two
+ * fields, the breaker is shared by all sessions.
+ *
+ */
+
+public class CircuitBreaker{
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_MILLIS = 10000;
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int _failureThreshold;
+	private final long _openMillis;
+	private final QueryMetrics _metrics;
+
+	private volatile State _state = State.CLOSED;
+	private final AtomicInteger _failures = new AtomicInteger();
+	//time the circuit opened, guarded by this
+	private long _openedAt = 0;
+	//a probe is running in HALF_OPEN, guarded by this
+	private boolean _probing = false;
+
+	/**
+	 * @param failureThreshold consecutive failures opening the circuit
+	 * @param openMillis time the circuit stays open before a probe
+	 * @param metrics counts the trips and the rejected statements
+	 */
+	public CircuitBreaker(int failureThreshold, long openMillis, QueryMetrics metrics){
+		this._failureThreshold = Math.max(failureThreshold, 1);
+		this._openMillis = openMillis;
+		this._metrics = metrics;
+	}
+
+	/**
+	 * @return the breaker set by the system properties db.breakerFailures
+	 * and db.breakerOpen (milliseconds), with the defaults for those not set
+	 */
+	public static CircuitBreaker fromProperties(QueryMetrics metrics){
+		return new CircuitBreaker(
+			Integer.getInteger("db.breakerFailures", DEFAULT_FAILURE_THRESHOLD),
+			Long.getLong("db.breakerOpen", DEFAULT_OPEN_MILLIS),
+			metrics);
+	}
+
+	public State getState(){
+		return this._state;
+	}
+
+	/**
+	 * Method called before a statement is sent.
+	 *
+	 * @throws java.sql.SQLTransientConnectionException while the circuit is open
+	 */
+	public void allow() throws SQLException {
+		if (this._state == State.CLOSED)
+			return;
+		synchronized (this){
+			if (this._state == State.OPEN && System.currentTimeMillis() - this._openedAt >= this._openMillis){
+				this._state = State.HALF_OPEN;
+				this._probing = false;
+			}//end if
+			if (this._state == State.HALF_OPEN && !this._probing){
+				this._probing = true;
+				return;
+			}//end if
+			if (this._state == State.CLOSED)
+				return;
+			this._metrics.rejected();
+			long wait = Math.max(this._openMillis - (System.currentTimeMillis() - this._openedAt), 0);
+			throw new SQLTransientConnectionException("The database is unavailable, next try in " + (wait + 999) / 1000 + " s");
+		}//end synchronized
+	}
+
+	/**
+	 * Method called after a statement succeeded, or failed on an error
+	 * the database answered with.
+	 */
+	public void succeeded(){
+		if (this._state == State.CLOSED && this._failures.get() == 0)
+			return;
+		synchronized (this){
+			this._failures.set(0);
+			if (this._state != State.CLOSED){
+				this._state = State.CLOSED;
+				this._probing = false;
+				this._metrics.closed();
+			}//end if
+		}//end synchronized
+	}
+
+	/**
+	 * Method called after a statement failed on a connection error or its
+	 * timeout.
+	 */
+	public void failed(){
+		int failures = this._failures.incrementAndGet();
+		if (this._state == State.CLOSED && failures < this._failureThreshold)
+			return;
+		synchronized (this){
+			// a failed probe opens the circuit again
+			if (this._state == State.OPEN)
+				return;
+			this._state = State.OPEN;
+			this._openedAt = System.currentTimeMillis();
+			this._probing = false;
+			this._metrics.tripped();
+		}//end synchronized
+	}
+
+	/**
+	 * Method called after a statement failed without telling whether the
+	 * database is up, e.g. on a pool timeout or an error of the driver.
+	 * The circuit stays as it is; a probe ends, the next statement probes
+	 * again.
+	 */
+	public void ignored(){
+		if (this._state != State.HALF_OPEN)
+			return;
+		synchronized (this){
+			this._probing = false;
+		}//end synchronized
+	}
+}//end CircuitBreaker
@@ -0,0 +1,251 @@
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class defines a bounded pool of physical connections to the same
+ * database.  Connections are validated when they are borrowed after having
+ * been idle for a while, and connections idle for longer than the idle
+ * timeout are closed as long as more than the minimum are open.
+ *
+ */
+
+public class ConnectionPool{
+	//connections returned within this window are handed out without validation
+	static final long VALIDATION_INTERVAL_MILLIS = 1000;
+	//seconds to wait for a validation round trip
+	static final int VALIDATION_TIMEOUT = 5;
+
+	private final String _url;
+	private final Properties _props;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutMillis;
+	private final long _borrowTimeoutMillis;
+
+	//most recently returned connection first, so warm statement caches are reused
+	private final ArrayDeque<DBConnection> _idle = new ArrayDeque<DBConnection>();
+	//every open connection, idle or borrowed
+	private final Set<DBConnection> _all = new HashSet<DBConnection>();
+	private int _open = 0;
+	private boolean _closed = false;
+	private final ScheduledExecutorService _evictor;
+
+	/**
+	 * Creates the pool and opens the minimum number of connections.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param props the connection properties (user, password, ...)
+	 * @param minSize connections kept open even when idle
+	 * @param maxSize upper bound of open connections
+	 * @param idleTimeoutMillis idle time after which surplus connections are closed
+	 * @param borrowTimeoutMillis time borrow waits for a free connection
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public ConnectionPool(String url, Properties props, int minSize, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		this._url = url;
+		this._props = props;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(idleTimeoutMillis / 2, 1000);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+
+		try{
+			for (int i = 0; i < minSize; ++i){
+				this._idle.push(open());
+				++this._open;
+			}//end for
+		}catch (SQLException e){
+			close();
+			throw e;
+		}//end try
+	}
+
+	/**
+	 * Method to borrow a connection.  Waits up to the borrow timeout when
+	 * all connections are in use and the pool is at its maximum size.
+	 *
+	 * @return a validated connection, to be given back with release
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public DBConnection borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + this._borrowTimeoutMillis;
+		while (true){
+			DBConnection conn = null;
+			synchronized (this){
+				while (true){
+					if (this._closed)
+						throw new SQLException("Connection pool is closed");
+					if (!this._idle.isEmpty()){
+						conn = this._idle.pop();
+						break;
+					}//end if
+					if (this._open < this._maxSize){
+						++this._open;
+						break;
+					}//end if
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0)
+						throw new SQLException("Timed out waiting for a connection (" + this._maxSize + " in use)");
+					try{
+						wait(wait);
+					}catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a connection");
+					}//end try
+				}//end while
+			}//end synchronized
+
+			if (conn == null){
+				// a slot was reserved above, open outside of the lock
+				try{
+					return open();
+				}catch (SQLException e){
+					discarded();
+					throw e;
+				}//end try
+			}//end if
+			if (System.currentTimeMillis() - conn.idleSince < VALIDATION_INTERVAL_MILLIS || conn.isValid(VALIDATION_TIMEOUT))
+				return conn;
+			// broken connection, drop it and try again
+			close(conn);
+			discarded();
+		}//end while
+	}//end borrow
+
+	/**
+	 * Method to give a borrowed connection back to the pool.  Connections
+	 * left inside a transaction are rolled back first.
+	 *
+	 * @param conn the connection obtained from borrow
+	 */
+	public void release(DBConnection conn){
+		boolean reusable;
+		try{
+			if (!conn.connection.getAutoCommit()){
+				conn.connection.rollback();
+				conn.connection.setAutoCommit(true);
+			}//end if
+			reusable = !conn.connection.isClosed();
+		}catch (SQLException e){
+			reusable = false;
+		}//end try
+
+		synchronized (this){
+			if (reusable && !this._closed){
+				conn.idleSince = System.currentTimeMillis();
+				this._idle.push(conn);
+				notify();
+				return;
+			}//end if
+		}//end synchronized
+		close(conn);
+		discarded();
+	}//end release
+
+	/**
+	 * Method to close connections that have been idle for longer than the
+	 * idle timeout, keeping at least the minimum number open.
+	 */
+	public void evictIdle(){
+		long now = System.currentTimeMillis();
+		ArrayDeque<DBConnection> evicted = new ArrayDeque<DBConnection>();
+		synchronized (this){
+			// the least recently used connections are at the tail
+			while (this._open > this._minSize && !this._idle.isEmpty()
+					&& now - this._idle.peekLast().idleSince > this._idleTimeoutMillis){
+				evicted.push(this._idle.pollLast());
+				--this._open;
+			}//end while
+		}//end synchronized
+		for (DBConnection conn : evicted)
+			close(conn);
+	}//end evictIdle
+
+	public synchronized int getOpenCount(){
+		return this._open;
+	}
+
+	public synchronized int getIdleCount(){
+		return this._idle.size();
+	}
+
+	public int getMaxSize(){
+		return this._maxSize;
+	}
+
+	/**
+	 * @return statement cache hits summed over all open connections
+	 */
+	public synchronized long getStatementCacheHits(){
+		long hits = 0;
+		for (DBConnection conn : this._all)
+			hits += conn.statements.getHits();
+		return hits;
+	}
+
+	/**
+	 * @return statement cache misses summed over all open connections
+	 */
+	public synchronized long getStatementCacheMisses(){
+		long misses = 0;
+		for (DBConnection conn : this._all)
+			misses += conn.statements.getMisses();
+		return misses;
+	}
+
+	/**
+	 * Method to close all idle connections and reject further borrows.
+	 * Connections still in use are closed when they are released.
+	 */
+	public void close(){
+		ArrayDeque<DBConnection> idle;
+		synchronized (this){
+			this._closed = true;
+			idle = new ArrayDeque<DBConnection>(this._idle);
+			this._open -= this._idle.size();
+			this._idle.clear();
+			notifyAll();
+		}//end synchronized
+		if (this._evictor != null)
+			this._evictor.shutdownNow();
+		for (DBConnection conn : idle)
+			close(conn);
+	}//end close
+
+	private DBConnection open() throws SQLException {
+		DBConnection conn = new DBConnection(DriverManager.getConnection(this._url, this._props));
+		synchronized (this){
+			this._all.add(conn);
+		}//end synchronized
+		return conn;
+	}
+
+	private void close(DBConnection conn){
+		synchronized (this){
+			this._all.remove(conn);
+		}//end synchronized
+		conn.close();
+	}
+
+	private synchronized void discarded(){
+		--this._open;
+		notify();
+	}
+}//end ConnectionPool
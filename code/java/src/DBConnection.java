@@ -0,0 +1,61 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class pairs a physical database connection with the prepared
+ * statements cached for it.  It is either owned by a single DBproject or
+ * handed out by a ConnectionPool.
+ *
+ */
+
+public class DBConnection{
+	final Connection connection;
+	final StatementCache statements;
+	//row mappers compiled for the results of cached statements, by SQL text
+	final Map<RowMapper.Factory<?>, Map<String, RowMapper<?>>> mappers = new HashMap<RowMapper.Factory<?>, Map<String, RowMapper<?>>>();
+	//time the connection was last returned to its pool
+	long idleSince;
+
+	public DBConnection(Connection connection){
+		this.connection = connection;
+		this.statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+		this.idleSince = System.currentTimeMillis();
+	}
+
+	public Connection getConnection(){
+		return this.connection;
+	}
+
+	public StatementCache getStatements(){
+		return this.statements;
+	}
+
+	/**
+	 * Method to check that the connection is still usable.
+	 *
+	 * @param timeout seconds to wait for the database to answer
+	 * @return true if the connection answered in time
+	 */
+	public boolean isValid(int timeout){
+		try{
+			return !this.connection.isClosed() && this.connection.isValid(timeout);
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}
+
+	/**
+	 * Method to close the cached statements and the physical connection.
+	 */
+	public void close(){
+		this.statements.clear();
+		this.mappers.clear();
+		try{
+			this.connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}//end close
+}//end DBConnection
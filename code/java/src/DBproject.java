@@ -14,6 +14,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,8 +22,12 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -31,26 +36,181 @@ import java.util.ArrayList;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
-	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-	
+	//rows fetched per round trip by the streaming queries
+	public static final int DEFAULT_FETCH_SIZE = 500;
+
+	//reference to physical database connection, owned by this object or
+	//pinned from the pool; null in pooled mode while nothing is pinned
+	private DBConnection _connection = null;
+	//source of connections in pooled mode, null when connected directly
+	private ConnectionPool _pool = null;
+	//where a direct connection is opened again after a connection error
+	private String _url = null;
+	private Properties _props = null;
+	//seconds each statement of this session may run, 0 for no limit
+	private int _queryTimeout = retries.getQueryTimeout();
+	//input and output of the session using this object
+	final BufferedReader in;
+	final PrintStream out;
+	final PrintStream err;
+	//available appointments per department and date, shared by all sessions
+	static final AvailabilityCache availability = new AvailabilityCache(AvailabilityCache.DEFAULT_MAX_ENTRIES, AvailabilityCache.DEFAULT_TTL_MILLIS);
+	//Doctor, Department, Hospital and Staff in memory, shared by all sessions
+	static final ReferenceData reference = new ReferenceData();
+	//latencies, rows and errors of the executed statements, shared by all sessions
+	static final QueryMetrics metrics = new QueryMetrics();
+	//timeouts and retries of the statements, and the breaker shared by all sessions
+	static final RetryPolicy retries = RetryPolicy.fromProperties();
+	static final CircuitBreaker breaker = CircuitBreaker.fromProperties(metrics);
+	//primary keys reserved by this session
+	final IdAllocator doctorIds = new IdAllocator("doctor_id_seq");
+	final IdAllocator patientIds = new IdAllocator("patient_id_seq");
+	final IdAllocator appointmentIds = new IdAllocator("appointment_id_seq");
+	//runs the menu operations of this session, created on first use
+	private BookingService _service = null;
+
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this.in = new BufferedReader(new InputStreamReader(System.in));
+		this.out = System.out;
+		this.err = System.err;
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			String url = connectionUrl(dbname, dbport);
 			System.out.println ("Connection URL: " + url + "\n");
-			
+
 			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			this._url = url;
+			this._props = connectionProperties(user, passwd);
+	        this._connection = new DBConnection(DriverManager.getConnection(url, this._props));
 	        System.out.println("Done");
-		}catch(Exception e){
-			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
+		}catch(SQLException e){
 	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
+			// the caller decides whether to give up, main ends the process
+			throw new SQLException("Error - Unable to Connect to Database: " + e.getMessage(), e.getSQLState(), e);
 		}
 	}
+
+	/**
+	 * Creates a session that borrows a connection from the pool for each
+	 * statement (or for as long as it is pinned) and talks to its user
+	 * through the given streams.
+	 *
+	 * @param pool the pool shared by all sessions
+	 * @param in the session input
+	 * @param out the session output, also used for error messages
+	 */
+	public DBproject(ConnectionPool pool, BufferedReader in, PrintStream out){
+		this._pool = pool;
+		this.in = in;
+		this.out = out;
+		this.err = out;
+	}
+
+	/**
+	 * @return the JDBC URL of a database on this machine
+	 */
+	public static String connectionUrl(String dbname, String dbport){
+		return "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+	}
+
+	/**
+	 * @return the properties every connection of this application is opened with
+	 */
+	public static Properties connectionProperties(String user, String passwd){
+		// use server side prepared statements from the first execution on,
+		// cached statements are reused anyway
+		Properties props = new Properties();
+		props.setProperty("user", user);
+		props.setProperty("password", passwd);
+		props.setProperty("prepareThreshold", "1");
+		// send JDBC insert batches as multi-row inserts
+		props.setProperty("reWriteBatchedInserts", "true");
+		return props;
+	}
+
+	/**
+	 * @return the asynchronous API the menu functions of this session call,
+	 * running one operation at a time on this session
+	 */
+	public synchronized BookingService service(){
+		if (this._service == null)
+			this._service = new BookingService(this);
+		return this._service;
+	}
+
+	/**
+	 * Method to keep one pooled connection for this session until unpin is
+	 * called, e.g. to run several statements in one transaction.  Does
+	 * nothing for a direct connection or when already pinned.
+	 *
+	 * @return the pinned connection
+	 * @throws java.sql.SQLException when no connection could be borrowed
+	 */
+	public Connection pin() throws SQLException {
+		if (this._connection == null)
+			this._connection = this._pool.borrow();
+		else if (this._pool == null && this._connection.connection.isClosed())
+			reconnect();
+		return this._connection.connection;
+	}
+
+	/**
+	 * Method to give a pinned connection back to the pool.  Does nothing
+	 * for a direct connection.
+	 */
+	public void unpin(){
+		if (this._pool != null && this._connection != null){
+			DBConnection conn = this._connection;
+			this._connection = null;
+			this._pool.release(conn);
+		}//end if
+	}
+
+	/**
+	 * Method to end a transaction run on the pinned connection: restores
+	 * auto-commit and unpins the connection, also when it was lost.  A
+	 * lost pooled connection is dropped by the pool, a lost direct one is
+	 * opened again by the next statement.
+	 *
+	 * @param conn the pinned connection
+	 */
+	public void endTransaction(Connection conn){
+		try{
+			conn.setAutoCommit(true);
+		}catch (SQLException e){
+			// lost, nothing to restore
+		}finally{
+			unpin();
+		}//end try
+	}
+
+	/**
+	 * Method to roll back a transaction after a failure.  If the rollback
+	 * fails too, e.g. on a lost connection, its error is added to the
+	 * failure as suppressed instead of replacing it.
+	 *
+	 * @param conn the connection of the transaction
+	 * @param failure the failure the transaction ends on, thrown by the caller
+	 */
+	public static void rollback(Connection conn, Exception failure){
+		try{
+			conn.rollback();
+		}catch (SQLException e){
+			failure.addSuppressed(e);
+		}//end try
+	}
+
+	/**
+	 * Method to set the time every following statement of this session may
+	 * run before the database cancels it, e.g. 0 for maintenance that runs
+	 * for long.  Defaults to the query timeout of the retry policy.
+	 *
+	 * @param seconds the timeout, 0 for no limit
+	 */
+	public void setQueryTimeout(int seconds){
+		this._queryTimeout = seconds;
+	}
 	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
@@ -60,14 +220,17 @@ public class DBproject{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		execute (sql, (conn, sample) -> {
+			// creates a statement object
+			Statement stmt = statement (conn);
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+			// issues the update instruction
+			stmt.executeUpdate (sql);
 
-		// close the instruction
-	    stmt.close ();
+			// close the instruction
+		    stmt.close ();
+		    return null;
+		});
 	}//end executeUpdate
 
 	/**
@@ -80,37 +243,16 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+		// not retried, rows of the failed attempt may have been printed
+		return execute (query, false, (conn, sample) -> {
+			//creates a statement object
+			Statement stmt = statement (conn);
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-				System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//issues the query instruction and outputs the rows as they arrive
+			int rowCount = stream (conn, stmt, query, DEFAULT_FETCH_SIZE, printer (), sample);
+			stmt.close ();
+			return rowCount;
+		});
 	}
 	
 	/**
@@ -123,31 +265,17 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+		return execute (query, (conn, sample) -> {
+			//creates a statement object 
+			Statement stmt = statement (conn); 
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (query); 
+		 
+			List<List<String>> result = collectResult (rs, sample);
+			stmt.close (); 
+			return result; 
+		});
 	}//end executeQueryAndReturnResult
 	
 	/**
@@ -159,26 +287,409 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		return execute (query, (conn, sample) -> {
+			//creates a statement object
+			Statement stmt = statement (conn);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery (query);
+
+			int rowCount = 0;
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			stmt.close ();
+			sample.fetched (rowCount, 0);
+			return rowCount;
+		});
+	}
+
+	/**
+	 * Method to execute a parameterized update SQL statement.  The statement
+	 * is prepared once per connection and reused from the statement cache.
+	 *
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		return execute (sql, (conn, sample) -> {
+			PreparedStatement stmt = prepare (conn, sql, params, this._queryTimeout);
+			return stmt.executeUpdate ();
+		});
+	}//end executeUpdate
+
+	/**
+	 * Method to execute a parameterized query and output the results to
+	 * standard out.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		return executeQueryAndStream (query, DEFAULT_FETCH_SIZE, printer (), params);
+	}
+
+	/**
+	 * Method to execute a parameterized query and hand the rows to the
+	 * handler one at a time.  The rows are fetched through a server side
+	 * cursor, fetchSize rows per round trip, so memory use does not grow with
+	 * the size of the result.  The cursor is closed before the method
+	 * returns, also when the handler throws.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler receives every row of the result
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStream (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		// not retried, the handler may have seen rows of the failed attempt
+		return execute (query, false, (conn, sample) -> {
+			PreparedStatement stmt = prepare (conn, query, params, this._queryTimeout);
+			return stream (conn, stmt, query, fetchSize, handler, sample);
+		});
+	}
+
+	/**
+	 * Method to execute a parameterized query and return the results as a
+	 * list of records.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		return execute (query, (conn, sample) -> {
+			PreparedStatement stmt = prepare (conn, query, params, this._queryTimeout);
+			try (ResultSet rs = stmt.executeQuery ()){
+				return collectResult (rs, sample);
+			}
+		});
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute a parameterized query and return whether it found
+	 * a row (0 or 1), like executeQuery(String).
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned, at most 1
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return execute (query, (conn, sample) -> {
+			PreparedStatement stmt = prepare (conn, query, params, this._queryTimeout);
+			try (ResultSet rs = stmt.executeQuery ()){
+				int rowCount = rs.next() ? 1 : 0;
+				sample.fetched (rowCount, 0);
+				return rowCount;
+			}
+		});
+	}
+
+	/**
+	 * Method to execute a parameterized query and map every row to an
+	 * object.  The mapper is compiled from the result metadata on the first
+	 * execution of the query on a connection and reused afterwards.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param mapping compiles the mapper of the result columns
+	 * @param params the values bound to the placeholders, in order
+	 * @return the objects of the rows, in order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> executeQueryAndMap (String query, RowMapper.Factory<T> mapping, Object... params) throws SQLException {
+		return execute (query, (conn, sample) -> {
+			PreparedStatement stmt = prepare (conn, query, params, this._queryTimeout);
+			try (ResultSet rs = stmt.executeQuery ()){
+				RowMapper<T> mapper = mapper (conn, query, mapping, rs);
+				List<T> result = new ArrayList<T>();
+				while (rs.next ())
+					result.add (mapper.map (rs));
+				sample.fetched (result.size (), 0);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Method to execute a parameterized query and map its first row, e.g.
+	 * a lookup by primary key.
+	 *
+	 * @param query the input query string with '?' placeholders
+	 * @param mapping compiles the mapper of the result columns
+	 * @param params the values bound to the placeholders, in order
+	 * @return the object of the first row, null if there is none
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> T executeQueryAndMapFirst (String query, RowMapper.Factory<T> mapping, Object... params) throws SQLException {
+		return execute (query, (conn, sample) -> {
+			PreparedStatement stmt = prepare (conn, query, params, this._queryTimeout);
+			try (ResultSet rs = stmt.executeQuery ()){
+				if (!rs.next ())
+					return null;
+				sample.fetched (1, 0);
+				return mapper (conn, query, mapping, rs).map (rs);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of statements served from the statement cache,
+	 * over all pooled connections in pooled mode
+	 */
+	public long getStatementCacheHits(){
+		if (this._pool != null)
+			return this._pool.getStatementCacheHits();
+		return this._connection.statements.getHits();
+	}
+
+	/**
+	 * @return the number of statements that had to be prepared, over all
+	 * pooled connections in pooled mode
+	 */
+	public long getStatementCacheMisses(){
+		if (this._pool != null)
+			return this._pool.getStatementCacheMisses();
+		return this._connection.statements.getMisses();
+	}
+
+	/*
+	 * the part of an execution method that runs on the acquired connection
+	 */
+	private interface Execution<T>{
+		T run (DBConnection conn, QueryMetrics.Sample sample) throws SQLException;
+	}
+
+	private <T> T execute (String sql, Execution<T> body) throws SQLException {
+		return execute (sql, true, body);
+	}
+
+	/*
+	 * acquires a connection, runs the body on it and records the execution
+	 * in the query metrics, failures included.  A failure the retry policy
+	 * names runs the body again, on another connection after a connection
+	 * error, unless the statement was part of a transaction or retryable is
+	 * false; a connection error only before the body ran, as a write may
+	 * have committed after, and not on a pinned pooled connection, which
+	 * stays closed.  Every attempt passes the circuit breaker first, and
+	 * only successes and answers of the server count as successes.
+	 */
+	private <T> T execute (String sql, boolean retryable, Execution<T> body) throws SQLException {
+		for (int attempt = 1; ; ++attempt){
+			breaker.allow ();
+			QueryMetrics.Sample sample = metrics.start (sql);
+			DBConnection conn = null;
+			boolean inTransaction = false;
+			boolean sent = false;
+			try{
+				conn = acquire ();
+				sample.acquired ();
+				inTransaction = !conn.connection.getAutoCommit ();
+				sent = true;
+				T result = body.run (conn, sample);
+				sample.succeeded ();
+				breaker.succeeded ();
+				return result;
+			}catch (SQLException e){
+				sample.failed (e);
+				if (retries.isConnectionError (e) || retries.isTimeout (e))
+					breaker.failed ();
+				else if (retries.isServerError (e))
+					// the database answered
+					breaker.succeeded ();
+				else
+					breaker.ignored ();
+				// the pool drops a closed connection, a direct one is opened again
+				boolean lost = conn != null && retries.isConnectionError (e);
+				if (lost)
+					conn.close ();
+				boolean pinned = this._pool != null && conn != null && conn == this._connection;
+				if (!retryable || inTransaction || (lost && pinned) || !retries.shouldRetry (e, attempt, sent) || !retries.pause (attempt))
+					throw e;
+				sample.retried ();
+			}catch (RuntimeException e){
+				sample.failed (e);
+				breaker.ignored ();
+				throw e;
+			}finally{
+				if (conn != null)
+					release (conn);
+			}
+		}//end for
+	}
+
+	/*
+	 * returns the pinned connection or borrows one from the pool; a direct
+	 * connection closed after a connection error is opened again
+	 */
+	private DBConnection acquire () throws SQLException {
+		if (this._connection != null){
+			if (this._pool == null && this._connection.connection.isClosed ())
+				reconnect ();
+			return this._connection;
+		}//end if
+		return this._pool.borrow ();
+	}
+
+	/*
+	 * replaces the direct connection; a transaction it was in is lost
+	 */
+	private void reconnect () throws SQLException {
+		this._connection.close ();
+		this._connection = new DBConnection (DriverManager.getConnection (this._url, this._props));
+		metrics.reconnected ();
+	}
+
+	/*
+	 * gives a connection obtained from acquire back unless it is pinned
+	 */
+	private void release (DBConnection conn){
+		if (conn != this._connection)
+			this._pool.release (conn);
+	}
+
+	/*
+	 * creates a statement with the query timeout of the session
+	 */
+	private Statement statement (DBConnection conn) throws SQLException {
+		Statement stmt = conn.connection.createStatement ();
+		stmt.setQueryTimeout (this._queryTimeout);
+		return stmt;
+	}
+
+	/*
+	 * looks up the cached statement for the SQL text, sets the query timeout
+	 * and binds the values
+	 */
+	private static PreparedStatement prepare (DBConnection conn, String sql, Object[] params, int queryTimeout) throws SQLException {
+		PreparedStatement stmt = conn.statements.prepare (sql);
+		stmt.setQueryTimeout (queryTimeout);
+		for (int i = 0; i < params.length; ++i)
+			stmt.setObject (i + 1, params[i]);
+		return stmt;
+	}
+
+	/*
+	 * returns the mapper compiled for the query on this connection, or
+	 * compiles it from the result metadata
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> RowMapper<T> mapper (DBConnection conn, String query, RowMapper.Factory<T> mapping, ResultSet rs) throws SQLException {
+		Map<String, RowMapper<?>> compiled = conn.mappers.get (mapping);
+		if (compiled == null){
+			compiled = new HashMap<String, RowMapper<?>>();
+			conn.mappers.put (mapping, compiled);
+		}//end if
+		RowMapper<T> mapper = (RowMapper<T>) compiled.get (query);
+		if (mapper == null){
+			mapper = mapping.create (rs.getMetaData ());
+			// bounded like the statement cache, ad hoc SQL is compiled every time
+			if (compiled.size () < StatementCache.DEFAULT_CAPACITY)
+				compiled.put (query, mapper);
+		}//end if
+		return mapper;
+	}
+
+	/*
+	 * runs the query with the given fetch size and passes each row to the
+	 * handler. The driver only fetches through a cursor inside a transaction,
+	 * so an auto-committing connection runs it in its own read transaction.
+	 */
+	private static int stream (DBConnection conn, Statement stmt, String query, int fetchSize, RowHandler handler, QueryMetrics.Sample sample) throws SQLException {
+		boolean autoCommit = conn.connection.getAutoCommit ();
+		boolean done = false;
+		if (autoCommit)
+			conn.connection.setAutoCommit (false);
+		try{
+			stmt.setFetchSize (fetchSize);
+			ResultSet rs = (stmt instanceof PreparedStatement) ? ((PreparedStatement) stmt).executeQuery () : stmt.executeQuery (query);
+			try{
+				Row row = new Row (rs);
+				int rowCount = 0;
+				while (rs.next()){
+					handler.handle (row);
+					++rowCount;
+				}//end while
+				done = true;
+				sample.fetched (rowCount, row.getBytesRead ());
+				return rowCount;
+			}finally{
+				rs.close ();
+				stmt.setFetchSize (0);
+			}
+		}finally{
+			if (autoCommit){
+				if (done)
+					conn.connection.commit ();
+				else
+					conn.connection.rollback ();
+				conn.connection.setAutoCommit (true);
+			}//end if
+		}
+	}
+
+	/*
+	 * returns a handler that outputs the header and the rows to the session output
+	 */
+	private RowHandler printer () {
+		final PrintStream out = this.out;
+		return new RowHandler(){
+			boolean outputHeader = true;
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			public void handle (Row row) throws SQLException {
+				int numCol = row.getColumnCount ();
+				if(outputHeader){
+					for(int i = 1; i <= numCol; i++){
+						out.print(row.getColumnName(i) + "\t");
+				    }
+				    out.println();
+				    outputHeader = false;
+				}
+				for (int i=1; i<=numCol; ++i)
+					out.print (row.getString (i) + "\t");
+				out.println ();
+			}
+		};
+	}
 
-		int rowCount = 0;
+	/*
+	 * copies all rows of the result set into a list of records
+	 */
+	private static List<List<String>> collectResult (ResultSet rs, QueryMetrics.Sample sample) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData ();
+		int numCol = rsmd.getColumnCount ();
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
+		//iterates through the result set and saves the data returned by the query.
+		List<List<String>> result  = new ArrayList<List<String>>();
+		long bytes = 0;
+		while (rs.next()){
+			List<String> record = new ArrayList<String>(numCol);
+			for (int i=1; i<=numCol; ++i){
+				String value = rs.getString (i);
+				if (value != null)
+					bytes += value.length ();
+				record.add(value);
+			}//end for
+			result.add(record);
 		}//end while
-		stmt.close ();
-		return rowCount;
+		sample.fetched (result.size (), bytes);
+		return result;
 	}
-	
+
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys.  In pooled mode the
+	 * session must be pinned since currval is local to a connection.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -186,36 +697,47 @@ public class DBproject{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		String query = String.format("Select currval('%s')", sequence);
+		// not retried, currval is lost with the connection
+		return execute (query, false, (conn, sample) -> {
+			Statement stmt = statement (conn);
+			
+			ResultSet rs = stmt.executeQuery (query);
+			if (rs.next()) return rs.getInt(1);
+			return -1;
+		});
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to close the physical connection if it is open.  In pooled
+	 * mode a pinned connection is given back to the pool instead.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
+		synchronized (this){
+			if (this._service != null){
+				this._service.close ();
+				this._service = null;
 			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		}//end synchronized
+		if (this._pool != null){
+			unpin ();
+		}else if (this._connection != null){
+			this._connection.close ();
+		}//end if
 	}//end cleanup
 
 	/**
 	 * The main execution method
 	 * 
-	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+	 * @param args the command line arguments this inclues the <dbname> <port> <user>
+	 * optionally followed by -server <listen port> [<min pool size> <max pool size>]
+	 * or by -batch <command file or - for stdin> [<commit interval>]
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length != 3 && !(args.length >= 5 && (args[3].equals("-server") || args[3].equals("-batch")))) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [-server <listen port> [<min pool size> <max pool size>] | -batch <file|-> [<commit interval>]]");
 			return;
 		}//end if
 		
@@ -237,35 +759,36 @@ public class DBproject{
 			String dbname = args[0];
 			String dbport = args[1];
 			String user = args[2];
+
+			// -Dmetrics.port=<port> and/or -Dmetrics.file=<file> export the query metrics
+			metrics.exportFromProperties();
+
+			// doctors and departments are looked up in memory from now on
+			try{
+				reference.listen(connectionUrl(dbname, dbport), connectionProperties(user, ""));
+			}catch (SQLException e){
+				System.err.println("Unable to load the reference data, looking it up in the database: " + e.getMessage());
+			}
+
+			if (args.length > 3 && args[3].equals("-batch")){
+				int commitInterval = args.length > 5 ? Integer.parseInt(args[5]) : BatchRunner.DEFAULT_COMMIT_INTERVAL;
+				esql = new DBproject (dbname, dbport, user, "");
+				try (BufferedReader commands = args[4].equals("-") ? esql.in : new BufferedReader(new FileReader(args[4]))){
+					new BatchRunner(esql, commitInterval, System.out).run(commands);
+				}
+				return;
+			}//end if
+
+			if (args.length > 3){
+				int listenPort = Integer.parseInt(args[4]);
+				int minSize = args.length > 6 ? Integer.parseInt(args[5]) : SessionServer.DEFAULT_MIN_POOL_SIZE;
+				int maxSize = args.length > 6 ? Integer.parseInt(args[6]) : SessionServer.DEFAULT_MAX_POOL_SIZE;
+				SessionServer.serve(dbname, dbport, user, "", listenPort, minSize, maxSize);
+				return;
+			}//end if
 			
 			esql = new DBproject (dbname, dbport, user, "");
-			
-			boolean keepon = true;
-			while(keepon){
-				System.out.println("MAIN MENU");
-				System.out.println("---------");
-				System.out.println("1. Add Doctor");
-				System.out.println("2. Add Patient");
-				System.out.println("3. Add Appointment");
-				System.out.println("4. Make an Appointment");
-				System.out.println("5. List appointments of a given doctor");
-				System.out.println("6. List all available appointments of a given department");
-				System.out.println("7. List total number of different types of appointments per doctor in descending order");
-				System.out.println("8. Find total number of patients per doctor with a given status");
-				System.out.println("9. < EXIT");
-				
-				switch (readChoice()){
-					case 1: AddDoctor(esql); break;
-					case 2: AddPatient(esql); break;
-					case 3: AddAppointment(esql); break;
-					case 4: MakeAppointment(esql); break;
-					case 5: ListAppointmentsOfDoctor(esql); break;
-					case 6: ListAvailableAppointmentsOfDepartment(esql); break;
-					case 7: ListStatusNumberOfAppointmentsPerDoctor(esql); break;
-					case 8: FindPatientsCountWithStatus(esql); break;
-					case 9: keepon = false; break;
-				}
-			}
+			menu (esql);
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
 		}finally{
@@ -278,250 +801,247 @@ public class DBproject{
 			}catch(Exception e){
 				// ignored.
 			}
+			reference.close();
+			metrics.close();
 		}
 	}
 
-	public static int readChoice() {
+	/**
+	 * Method to run the interactive main menu of a session until the user
+	 * exits or its input ends.
+	 *
+	 * @param esql the session
+	 */
+	public static void menu (DBproject esql) {
+		boolean keepon = true;
+		while(keepon){
+			esql.out.println("MAIN MENU");
+			esql.out.println("---------");
+			esql.out.println("1. Add Doctor");
+			esql.out.println("2. Add Patient");
+			esql.out.println("3. Add Appointment");
+			esql.out.println("4. Make an Appointment");
+			esql.out.println("5. List appointments of a given doctor");
+			esql.out.println("6. List all available appointments of a given department");
+			esql.out.println("7. List total number of different types of appointments per doctor in descending order");
+			esql.out.println("8. Find total number of patients per doctor with a given status");
+			esql.out.println("9. < EXIT");
+			
+			switch (readChoice(esql)){
+				case 1: AddDoctor(esql); break;
+				case 2: AddPatient(esql); break;
+				case 3: AddAppointment(esql); break;
+				case 4: MakeAppointment(esql); break;
+				case 5: ListAppointmentsOfDoctor(esql); break;
+				case 6: ListAvailableAppointmentsOfDepartment(esql); break;
+				case 7: ListStatusNumberOfAppointmentsPerDoctor(esql); break;
+				case 8: FindPatientsCountWithStatus(esql); break;
+				case 9: keepon = false; break;
+			}
+		}
+	}//end menu
+
+	public static int readChoice(DBproject esql) {
 		int input;
 		// returns only if a correct value is given.
 		do {
-			System.out.print("Please make your choice: ");
+			esql.out.print("Please make your choice: ");
 			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
+				String line = esql.in.readLine();
+				if (line == null) // end of input, exit
+					return 9;
+				input = Integer.parseInt(line);
 				break;
 			}catch (Exception e) {
-				System.out.println("Your input is invalid!");
+				esql.out.println("Your input is invalid!");
 				continue;
 			}//end try
 		}while (true);
 		return input;
 	}//end readChoice
+	/*
+	 * Menu queries. Values are always bound to the '?' placeholders so that
+	 * each query text is prepared once per connection and reused.
+	 */
+	static final Object[] NO_PARAMS = new Object[0];
+	static final String FIND_DOCTOR = "Select * from Doctor where name = ? and specialty = ? and did = ?";
+	static final String INSERT_DOCTOR = "Insert into Doctor Values (?, ?, ?, ?)";
+	static final String FIND_PATIENT = "Select * from Patient where name = ? and gtype = ? and age = ? and address = ? and number_of_appts = ?";
+	static final String INSERT_PATIENT = "Insert into Patient Values (?, ?, ?, ?, ?, ?)";
+	static final String FIND_APPOINTMENT = "Select * from appointment where adate = cast(? as date) and time_slot = ? and status = ?";
+	static final String INSERT_APPOINTMENT = "Insert into Appointment Values (?, cast(? as date), ?, ?)";
+	static final String PATIENT_BY_ID = "Select * from Patient a where patient_ID = ?";
+	static final String DOCTOR_BY_ID = "Select * from Doctor where doctor_ID = ?";
+	static final String APPOINTMENT_BY_ID = "Select * from Appointment where appnt_ID = ?";
+	static final String LIST_APPOINTMENTS_OF_DOCTOR = "select a.* from Appointment a, Doctor d, has_appointment h where a.adate between cast(? as date) and cast(? as date) and d.doctor_ID = ? and d.doctor_ID = h.doctor_id and a.appnt_ID = h.appt_id and a.adate = h.adate and a.status in ('AC', 'AV')";
+	static final String LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT = "Select a.* from appointment a, searches s, department d where d.name = ? and a.adate = cast(? as date) and a.status = 'AV' and a.appnt_ID = s.aid and a.adate = s.adate and s.hid = d.hid";
+	// 6 with the department name resolved to its hospitals by ReferenceData
+	static final String LIST_AVAILABLE_APPOINTMENTS_OF_HOSPITALS = "Select a.* from appointment a, searches s where s.hid = any(?) and a.adate = cast(? as date) and a.status = 'AV' and a.appnt_ID = s.aid and a.adate = s.adate";
+	// 7 and 8 read the counters maintained by the triggers of create.sql, see StatusCounters
+	static final String LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR = "select d.name, sum(c.num) as num_of_appointments, c.status from Doctor d, doctor_status_count c where d.doctor_ID = c.doctor_id and c.num > 0 group by d.name, c.status order by d.name, sum(c.num) desc";
+	static final String FIND_PATIENTS_COUNT_WITH_STATUS = "Select d.name, sum(c.num) as num from doctor_status_count c, doctor d where c.status = ? and c.num > 0 and c.doctor_id = d.doctor_ID group by d.name";
+
 	public static void AddDoctor(DBproject esql) {//1
 		try {
-			String docID = "", name, specialty, did; 
+			String name, specialty;
+			int docID, did;
 			//System.out.print("Enter the Doctor ID: $ "); 
 			//docID = in.readLine();
 				
-			System.out.print("Enter the Name of the Doctor: $ "); 
-			name = "\'" + in.readLine() + "\'"; 
-			System.out.print("Enter the Specialty of the Doctor: $ "); 
-			specialty = "\'" + in.readLine() + "\'"; 
-			System.out.print("Enter the Department ID of the Doctor: $ "); 
-			did = in.readLine(); 
-			String query = "Select * from Doctor where name = " + name + " and specialty = " + specialty + " and did = " + did; 
-			if (esql.executeQueryAndPrintResult(query) == 0) // nothing in return, doctor not in DB
+			esql.out.print("Enter the Name of the Doctor: $ "); 
+			name = esql.in.readLine();
+			esql.out.print("Enter the Specialty of the Doctor: $ "); 
+			specialty = esql.in.readLine();
+			esql.out.print("Enter the Department ID of the Doctor: $ "); 
+			did = Integer.parseInt(esql.in.readLine());
+			if (esql.executeQueryAndPrintResult(FIND_DOCTOR, name, specialty, did) == 0) // nothing in return, doctor not in DB
 			{
-				query = "Select count(*) from Doctor"; 
-				docID = esql.executeQueryAndReturnResult(query).get(0).get(0); 
-				System.out.print("Adding New Doctor with Doctor ID: " + docID + "\n"); 
-				query = "Insert into Doctor Values (" + docID + ", " + name + ", " + specialty + ", " + did + ")";
-				esql.executeUpdate(query);
+				docID = esql.doctorIds.next(esql);
+				esql.out.print("Adding New Doctor with Doctor ID: " + docID + "\n"); 
+				esql.executeUpdate(INSERT_DOCTOR, docID, name, specialty, did);
 			}
 			else {
-				System.out.print("Doctor Exists in DB. Ending...\n"); 
+				esql.out.print("Doctor Exists in DB. Ending...\n"); 
 				return; 
 			}
 		} catch(Exception e) {
-			System.err.println(e.getMessage());
+			esql.err.println(e.getMessage());
 		}
 	}
 	public static void AddPatient(DBproject esql) {//2
 		try{
-			String pid = "", name, gender, age, address, numberOfAppt; 
+			String name, gender, address;
+			int pid, age, numberOfAppt;
 			//System.out.print("Enter the Patient ID: $ ");
 			//pid = in.readLine() + ", "; 
-			System.out.print("Enter the Name of the Patient: $ "); 
-			name = "\'" + in.readLine() + "\'"; 
-			System.out.print("Enter the Gender of the Patient (M/F): $ "); 
-			gender = "\'" + in.readLine() + "\'"; 
-			System.out.print("Enter the Age of the Patient: $ "); 
-			age = in.readLine(); 
-			System.out.print("Enter the Address of the Patient: $ "); 
-			address = "\'" + in.readLine() + "\'"; 
-			System.out.print("Enter the Number of Appointment: $ "); 
-			numberOfAppt = in.readLine(); 
-			String query = "Select * from Patient where name = " + name + " and gtype = " + gender + " and age = " + age + " and address = " + address + " and number_of_appts = " + numberOfAppt;
-			if (esql.executeQueryAndPrintResult(query) == 0) // nothing in return, patient not in DB
+			esql.out.print("Enter the Name of the Patient: $ "); 
+			name = esql.in.readLine();
+			esql.out.print("Enter the Gender of the Patient (M/F): $ "); 
+			gender = esql.in.readLine();
+			esql.out.print("Enter the Age of the Patient: $ "); 
+			age = Integer.parseInt(esql.in.readLine());
+			esql.out.print("Enter the Address of the Patient: $ "); 
+			address = esql.in.readLine();
+			esql.out.print("Enter the Number of Appointment: $ "); 
+			numberOfAppt = Integer.parseInt(esql.in.readLine());
+			if (esql.executeQueryAndPrintResult(FIND_PATIENT, name, gender, age, address, numberOfAppt) == 0) // nothing in return, patient not in DB
 			{
-				query = "Select count(*) from Patient"; 
-				pid = esql.executeQueryAndReturnResult(query).get(0).get(0); 
-				System.out.print("Adding New Patient with Patient ID: " + pid + "\n");  
-				query = "Insert into Patient Values (" + pid + "," + name + "," + gender + "," + age + "," + address + "," + numberOfAppt + ")"; 
-				esql.executeUpdate(query);
+				pid = esql.patientIds.next(esql);
+				esql.out.print("Adding New Patient with Patient ID: " + pid + "\n");  
+				esql.executeUpdate(INSERT_PATIENT, pid, name, gender, age, address, numberOfAppt);
 			}
 			else {
-				System.out.print("Doctor Exists in DB. Ending...\n"); 
+				esql.out.print("Doctor Exists in DB. Ending...\n"); 
 				return; 
 			}
 		} catch(Exception e) {
-			System.err.println(e.getMessage());
+			esql.err.println(e.getMessage());
 		}
 	}
 	public static void AddAppointment(DBproject esql) {//3
 		try {
-			String appid, date, timeSlot, status; 
+			String date, timeSlot, status;
+			int appid;
 			//System.out.print("Enter the Appointment ID: $ ");
 			//appid = in.readLine(); 
-			System.out.print("Enter the Date of the Appointment (M/D/YYYY): $ "); 
-			date = "\'" + in.readLine() + "\'"; 
-			System.out.print("Enter the Time Slot of the Appointment: $ "); 
-			timeSlot = "\'" + in.readLine() + "\'";  
-			System.out.print("Enter the status of the Appointment:'PA' = Past, 'AC' = Active, 'AV' = Available, 'WL' = WaitList: $ "); 
-			status = "\'" + in.readLine() + "\'";
-			String query = "Select * from appointment where adate = " + date + " and time_slot = " + timeSlot + " and status = " + status; 
-			if (esql.executeQueryAndPrintResult(query) == 0) // nothing in return, appointment not in DB
+			esql.out.print("Enter the Date of the Appointment (M/D/YYYY): $ "); 
+			date = esql.in.readLine();
+			esql.out.print("Enter the Time Slot of the Appointment: $ "); 
+			timeSlot = esql.in.readLine();
+			esql.out.print("Enter the status of the Appointment:'PA' = Past, 'AC' = Active, 'AV' = Available, 'WL' = WaitList: $ "); 
+			status = esql.in.readLine();
+			if (esql.executeQueryAndPrintResult(FIND_APPOINTMENT, date, timeSlot, status) == 0) // nothing in return, appointment not in DB
 			{
-				query = "Select count(*) from Appointment"; 
-				appid = esql.executeQueryAndReturnResult(query).get(0).get(0); 
-				System.out.print("Adding New Appointment with AppID: " + appid + "\n"); 
-				query = "Insert into Appointment Values (" + appid + ", " + date + ", " + timeSlot + ", " + status + ")"; 
-				esql.executeUpdate(query);
+				appid = esql.appointmentIds.next(esql);
+				esql.out.print("Adding New Appointment with AppID: " + appid + "\n"); 
+				esql.executeUpdate(INSERT_APPOINTMENT, appid, date, timeSlot, status);
+				availability.invalidateDate(date);
 			}
 			else {
-				System.out.print("Appintment Exists in DB. Ending...\n");
+				esql.out.print("Appintment Exists in DB. Ending...\n");
 				return; 
 			}
 		} catch(Exception e) {
-			System.err.println(e.getMessage());
+			esql.err.println(e.getMessage());
 		}
 	}
 
 	public static void MakeAppointment(DBproject esql) {//4
 		// Given a patient, a doctor and an appointment of the doctor that s/he wants to take, add an appointment to the DB
-		String query; 
 		try {
 			boolean addNewPatient = false; 
-			String pid, docID, appID; 
-			String name = "", gender = "", age = "", address = "", numberOfAppt = ""; 
-			System.out.print("Enter the Patient ID: $ ");
-			pid = in.readLine(); 
+			int pid, docID, appID;
+			String name = "", gender = "", address = "";
+			int age = 0;
+			esql.out.print("Enter the Patient ID: $ ");
+			pid = Integer.parseInt(esql.in.readLine());
 			// check if patient exists
 			// patient not exist
-			query = "Select * from Patient a where patient_ID = " + pid; 
-			if (esql.executeQueryAndPrintResult(query) == 0) { // nothing in return, adding patient
+			if (BookingService.await(esql.service().patient(pid)).print(esql.out) == 0) { // nothing in return, adding patient
 				// add patient info
-				System.out.print("Patient does not exist in DB, Adding new patient...\n"); 
+				esql.out.print("Patient does not exist in DB, Adding new patient...\n"); 
 				try {
-				System.out.print("Enter the Name of the Patient: $ "); 
-				name = "\'" + in.readLine() + "\'"; 
-				System.out.print("Enter the Gender of the Patient (M/F): $ "); 
-				gender = "\'" + in.readLine() + "\'"; 
-				System.out.print("Enter the Age of the Patient: $ "); 
-				age = in.readLine(); 
-				System.out.print("Enter the Address of the Patient: $ "); 
-				address = "\'" + in.readLine() + "\'"; 
-				// default to 1, if appointment not available, decrease to 0
-				numberOfAppt = "1"; 
+				esql.out.print("Enter the Name of the Patient: $ "); 
+				name = esql.in.readLine();
+				esql.out.print("Enter the Gender of the Patient (M/F): $ "); 
+				gender = esql.in.readLine();
+				esql.out.print("Enter the Age of the Patient: $ "); 
+				age = Integer.parseInt(esql.in.readLine());
+				esql.out.print("Enter the Address of the Patient: $ "); 
+				address = esql.in.readLine();
+				// added with 1 appointment, or 0 if the appointment is not available
 				addNewPatient = true; 
 				} catch(Exception e) {
-					System.err.println(e.getMessage());
+					esql.err.println(e.getMessage());
 				}
 			}
 			else {
-				System.out.print("Patient Exists... Continue...\n"); 
+				esql.out.print("Patient Exists... Continue...\n"); 
 			}
 
-			System.out.print("Enter the Doctor ID: $ "); 
-			docID = in.readLine(); 
+			esql.out.print("Enter the Doctor ID: $ "); 
+			docID = Integer.parseInt(esql.in.readLine());
 			// check if doctor exists
-			query = "Select * from Doctor where doctor_ID = " + docID; 
-			if (esql.executeQueryAndPrintResult(query) == 0) {
-				System.err.print("Doctor does not exists!\n"); 
+			if (BookingService.await(esql.service().doctor(docID)).print(esql.out) == 0) {
+				esql.err.print("Doctor does not exists!\n"); 
 				return; 
 			}
 
-			System.out.print("Enter the Appointment ID: $ "); 
-			appID = in.readLine(); 
+			esql.out.print("Enter the Appointment ID: $ "); 
+			appID = Integer.parseInt(esql.in.readLine());
 			// check if appointment exists
-			query = "Select * from Appointment where appnt_ID = " + appID; 
-			if (esql.executeQueryAndPrintResult(query) == 0) {
-				System.err.print("Appointment does not exists!\n");
+			if (BookingService.await(esql.service().appointment(appID)).print(esql.out) == 0) {
+				esql.err.print("Appointment does not exists!\n");
 				return; 
 			}
 			
-			query = "Select status from Appointment where appnt_ID = " + appID;
-			
-			 
-			String currStatus = esql.executeQueryAndReturnResult(query).get(0).get(0);
-			if (currStatus.equals("PA") || currStatus.equals("WL"))
-			{
-				if (currStatus.equals("PA"))
-					System.out.print("Appointment is Pasted. Unable to Make!\n"); 
-				else 
-					System.out.print("Appointment is WaitListed. Unable to Make!\n"); 		
-				// unavailable, numofappt for patient is 0
-				numberOfAppt = "0"; 
-			}
-			else if (currStatus.equals("AC"))
-			{
-				System.out.print("Appointment is Active. Adding to Waitlist!\n"); 
-				// Update status of appointment
-				query = "Update appointment set status = 'WL' where appnt_ID = " + appID; 
-				esql.executeUpdate(query); 
-				// Insert to has_appointment
-				query = "Select * from has_appointment where appt_id = " + appID + " and doctor_id = " + docID; 
-				if (esql.executeQueryAndPrintResult(query) == 0) // has_appointment does not have the appointment yet, Insert
-				{
-					query = "Insert into has_appointment (appt_id, doctor_id) values (" + appID + ", " + docID + ")"; 
-					esql.executeUpdate(query); 
-				}
-				// Update patient #of appts if existing patient
-				if (addNewPatient == false) {
-					query = "Select number_of_appts from patient where patient_ID = " + pid; 
-					numberOfAppt = esql.executeQueryAndReturnResult(query).get(0).get(0); 
-					int intNumofAppts = Integer.parseInt(numberOfAppt) + 1; 
-					numberOfAppt = String.valueOf(intNumofAppts); 
-					query = "Update patient set number_of_appts = " + numberOfAppt + " where patient_ID = " + pid; 
-					esql.executeUpdate(query); 
-				}
-				 
-			}
-			else if (currStatus.equals("AV"))
-			{
-				System.out.print("Appointment is Available. Adding to list!\n");
-				query = "Update appointment set status = 'AC' where appnt_ID = " + appID; 
-				esql.executeUpdate(query); 
-				// Insert to has_appointment
-				query = "Insert into has_appointment (appt_id, doctor_id) values (" + appID + ", " + docID + ")"; 
-				esql.executeUpdate(query); 
-				// Update patient #of appts if existing patient
-				if (addNewPatient == false) {
-					query = "Select number_of_appts from patient where patient_ID = " + pid; 
-					numberOfAppt = esql.executeQueryAndReturnResult(query).get(0).get(0); 
-					int intNumofAppts = Integer.parseInt(numberOfAppt) + 1; 
-					numberOfAppt = String.valueOf(intNumofAppts); 
-					query = "Update patient set number_of_appts = " + numberOfAppt + " where patient_ID = " + pid; 
-					esql.executeUpdate(query); 
-				}
-			}
-			else {
-				System.out.print("Status: " + currStatus + " is Incorrect\n"); 
-			}
-			// appointment exists
-			if (addNewPatient == true) {
-				query = "Insert into Patient Values (" + pid + ", " + name + ", " + gender + ", " + age + ", " + address + ", " + numberOfAppt + ")"; 
-				esql.executeUpdate(query);
-			}
+			// claims the slot, links the doctor and counts the appointment in one statement
+			BookingResult result;
+			if (addNewPatient == true)
+				result = BookingService.await(esql.service().bookNewPatient(pid, docID, appID, name, gender, age, address));
+			else
+				result = BookingService.await(esql.service().book(pid, docID, appID));
+			esql.out.print(result.getMessage() + "\n");
 		} catch(Exception e) {
-			System.err.println(e.getMessage()); 
+			esql.err.println(e.getMessage()); 
 		}
 	}
 
 	public static void ListAppointmentsOfDoctor(DBproject esql) {//5
 		// For a doctor ID and a date range, find the list of active and available appointments of the doctor
 		try{
-			String docID, startDate, endDate;
-			System.out.print("Enter the Doctor ID: $");
-			docID = in.readLine();
-			System.out.print("Enter the starting date: $");
-			startDate = "'" + in.readLine() + "'";
-			System.out.print("Enter the ending date: $");
-			endDate = "'" + in.readLine() + "'";
-			String query = "select a.* from Appointment a, Doctor d, has_appointment h where a.adate between " + startDate + " and " + endDate + " and d.doctor_ID = " + docID + " and d.doctor_ID = h.doctor_id and a.appnt_ID = h.appt_id and a.status in ('AC', 'AV')";
-			if (esql.executeQueryAndPrintResult(query) == 0)
-				System.out.print("No Active or Available Appointments Found\n");
+			String startDate, endDate;
+			int docID;
+			esql.out.print("Enter the Doctor ID: $");
+			docID = Integer.parseInt(esql.in.readLine());
+			esql.out.print("Enter the starting date: $");
+			startDate = esql.in.readLine();
+			esql.out.print("Enter the ending date: $");
+			endDate = esql.in.readLine();
+			if (esql.executeQueryAndPrintResult(LIST_APPOINTMENTS_OF_DOCTOR, startDate, endDate, docID) == 0)
+				esql.out.print("No Active or Available Appointments Found\n");
 		}catch (Exception e){
-			System.err.println(e.getMessage()); 
+			esql.err.println(e.getMessage()); 
 		}
 	}
 
@@ -529,27 +1049,24 @@ public class DBproject{
 		// For a department name and a specific date, find the list of available appointments of the department
 		try{
 			String departmentName, date; 
-			System.out.print("Enter the Department Name: $ "); 
-			departmentName = "'" + in.readLine() + "'"; 
-			System.out.print("Enter the Date you looking for: $ "); 
-			date = "'" + in.readLine() + "'"; 
-			String query = "Select a.* from appointment a, searches s, department d where d.name = " + departmentName + " and a.adate = " + date + " and a.status = 'AV' and a.appnt_ID = s.aid and s.hid = d.hid"; 
-			if (esql.executeQueryAndPrintResult(query) == 0)
-				System.out.print("No Available Appointment Found\n"); 
+			esql.out.print("Enter the Department Name: $ "); 
+			departmentName = esql.in.readLine();
+			esql.out.print("Enter the Date you looking for: $ "); 
+			date = esql.in.readLine();
+			if (BookingService.await(esql.service().listAvailableAppointmentsOfDepartment(departmentName, date)).print(esql.out) == 0)
+				esql.out.print("No Available Appointment Found\n"); 
 		}catch (Exception e){
-			System.err.println(e.getMessage()); 
+			esql.err.println(e.getMessage()); 
 		}
 	}
 
 	public static void ListStatusNumberOfAppointmentsPerDoctor(DBproject esql) {//7
 		// Count number of different types of appointments per doctors and list them in descending order
 		try{
-			String query = "select d.name, count(a.appnt_ID) as num_of_appointments, a. status from Doctor d, Appointment a, has_appointment h where d.doctor_ID = h.doctor_id and h.appt_id = a.appnt_ID group by d.name, a.status order by d.name, count(a.appnt_ID) desc"
-			//String query = "select d.name, a.status, count(a.appnt_ID) as num_of_appointments from Doctor d, Appointment a, has_appointment h where d.doctor_ID = h.doctor_id and h.appt_id = a.appnt_ID group by d.name, a.status order by count(a.appnt_ID) desc";
-			if (esql.executeQueryAndPrintResult(query) == 0)
-				System.out.print("No Results Found\n");
+			if (esql.executeQueryAndPrintResult(LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR, NO_PARAMS) == 0)
+				esql.out.print("No Results Found\n");
 		}catch (Exception e){
-			System.err.println(e.getMessage()); 
+			esql.err.println(e.getMessage()); 
 		}
 	}
 
@@ -558,13 +1075,12 @@ public class DBproject{
 		// Find how many patients per doctor there are with a given status (i.e. PA, AC, AV, WL) and list that number per doctor.
 		try{
 			String status; 
-			System.out.print("Enter the status you looking for: $ "); 
-			status = "'" + in.readLine() + "'"; 
-			String query = "Select d.name, count(*) as num from appointment a, doctor d, has_appointment h where a.status = " + status + " and a.appnt_ID = h.appt_ID and h.doctor_id = d.doctor_ID group by d.name"; 
-			if (esql.executeQueryAndPrintResult(query) == 0)
-				System.out.print("No Result Found\n"); 
+			esql.out.print("Enter the status you looking for: $ "); 
+			status = esql.in.readLine();
+			if (esql.executeQueryAndPrintResult(FIND_PATIENTS_COUNT_WITH_STATUS, status) == 0)
+				esql.out.print("No Result Found\n"); 
 		}catch (Exception e){
-			System.err.println(e.getMessage()); 
+			esql.err.println(e.getMessage()); 
 		}
 
 	}
@@ -0,0 +1,337 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates a synthetic hospital data set in the format of
+ * code/data/*.csv.  Scale factor 1 matches the row counts of the shipped
+ * files (5 hospitals, 250 patients, 550 appointments, ...) and every table
+ * grows linearly with it, e.g. scale factor 1000 has 550,000 appointments.
+ *
+ * The output only depends on the seed and the scale factor.  Every table
+ * has its own random generator derived from the seed, so tables can be
+ * written independently and in parallel.  Foreign keys only point to IDs
+ * that exist at the same scale factor, keys of the relationship tables are
+ * unique, and gender and status values stay within _GENDER and _STATUS.
+ *
+ */
+
+public class DataGenerator{
+	//rows per table at scale factor 1, as shipped in code/data
+	static final int HOSPITALS = 5;
+	static final int PATIENTS = 250;
+	static final int APPOINTMENTS = 550;
+	static final int STAFF = 250;
+	static final int DOCTORS = 250;
+	static final int REQUESTS = 100;
+	static final int SEARCHES = 250;
+	static final int SCHEDULES = 100;
+	static final int HAS_APPOINTMENTS = 100;
+
+	//every hospital has one department of each name
+	static final String[] DEPARTMENTS = {
+		"Accident and emergency", "Allergy and Immunology", "Cardiology", "Dermatology", "Endocrinology",
+		"Finance", "Gastroenterology", "General Surgery", "Human Resources", "ICU",
+		"Microbiology", "Neurology", "Nutrition", "Obstetrics/Gynecology", "Oncology",
+		"Ophthalmology", "Otolaryngology", "Pain Management", "Patient Services", "Pediatric",
+		"Pharmacy", "Psychiatry", "Radiology", "Rheumatology", "Urology"
+	};
+	static final String[] SPECIALTIES = {
+		"Allergist", "Cardiologist", "Dermatologist", "Endocrinologist", "Gastroenterologist",
+		"Neurologist", "Nutritionist", "Oncologist", "Ophthalmologist", "Otolaryngologist",
+		"Pediatrician", "Psychiatrist", "Radiologist", "Urologist", "gynecologist"
+	};
+	static final String[] TIME_SLOTS = {
+		"8:00-10:00", "8:00-10:30", "8:00-10:50", "8:00-17:00", "10:00-15:00", "10:00-17:00", "13:00-15:00", "14:00-16:00"
+	};
+	static final String[] FIRST_NAMES = {
+		"Alvin", "Carrie", "Calvin", "Armand", "Alberto", "Wyatt", "Camille", "Lindsey", "Maria", "James",
+		"Olivia", "Noah", "Emma", "Liam", "Sophia", "Mason", "Isabella", "Lucas", "Mia", "Ethan"
+	};
+	static final String[] LAST_NAMES = {
+		"Saunders", "Cortez", "Morrison", "Enderle", "Scarlett", "Ruoff", "Holmes", "Sullivan", "Newton", "Garcia",
+		"Smith", "Johnson", "Nguyen", "Patel", "Kim", "Lopez", "Brown", "Davis", "Miller", "Wilson"
+	};
+	static final String[] STREETS = {
+		"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Lane", "Main Street", "Sunset Blvd.", "Elm Court", "River Road"
+	};
+	static final String[] CITIES = {
+		"Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Fresno", "Irvine", "Oakland", "San Diego"
+	};
+	static final String[] CITY_HOSPITALS = {
+		"Medical Center", "General Hospital", "Community Hospital", "Health Care", "Memorial Hospital"
+	};
+
+	//appointments are spread over these days; slots before TODAY are past ('PA')
+	static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+	static final int DAYS = 3 * 365;
+	static final LocalDate TODAY = LocalDate.of(2021, 6, 1);
+
+	private final long _seed;
+	private final double _scaleFactor;
+
+	/**
+	 * @param seed the seed all tables are derived from
+	 * @param scaleFactor the multiple of the shipped row counts
+	 */
+	public DataGenerator(long seed, double scaleFactor){
+		if (scaleFactor <= 0)
+			throw new IllegalArgumentException("Scale factor must be positive: " + scaleFactor);
+		this._seed = seed;
+		this._scaleFactor = scaleFactor;
+	}
+
+	int hospitals(){
+		return scaled(HOSPITALS);
+	}
+
+	int patients(){
+		return scaled(PATIENTS);
+	}
+
+	int appointments(){
+		return scaled(APPOINTMENTS);
+	}
+
+	int departments(){
+		return hospitals() * DEPARTMENTS.length;
+	}
+
+	int staff(){
+		return scaled(STAFF);
+	}
+
+	int doctors(){
+		return scaled(DOCTORS);
+	}
+
+	/**
+	 * Method to write the rows of one table.
+	 *
+	 * @param table the table, one of BulkLoader.TABLES
+	 * @param out receives the rows, one per line
+	 */
+	public void write(BulkLoader.Table table, Writer out) throws IOException {
+		Random random = new Random(this._seed * 31 + table.name.hashCode());
+		StringBuilder line = new StringBuilder(128);
+		switch (table.name){
+			case "Hospital":
+				for (int id = 0; id < hospitals(); ++id){
+					line.append(id).append(',').append(pick(random, CITIES)).append(' ').append(pick(random, CITY_HOSPITALS));
+					if (id >= CITIES.length)
+						line.append(' ').append(id);
+					emit(out, line);
+				}//end for
+				break;
+			case "Patient":
+				for (int id = 0; id < patients(); ++id){
+					line.append(id).append(',').append(name(random))
+						.append(',').append(random.nextBoolean() ? 'F' : 'M')
+						.append(',').append(1 + random.nextInt(95))
+						.append(',').append(1000 + random.nextInt(9000)).append(' ').append(pick(random, STREETS)).append(' ').append(pick(random, CITIES))
+						.append(',').append(random.nextInt(6));
+					emit(out, line);
+				}//end for
+				break;
+			case "Appointment":
+				for (int id = 0; id < appointments(); ++id){
+					LocalDate day = FIRST_DAY.plusDays(random.nextInt(DAYS));
+					line.append(id).append(',').append(day.getMonthValue()).append('/').append(day.getDayOfMonth()).append('/').append(day.getYear())
+						.append(',').append(pick(random, TIME_SLOTS))
+						.append(',').append(status(random, day));
+					emit(out, line);
+				}//end for
+				break;
+			case "Department":
+				for (int id = 0; id < departments(); ++id){
+					line.append(id).append(',').append(DEPARTMENTS[id % DEPARTMENTS.length]).append(',').append(id / DEPARTMENTS.length);
+					emit(out, line);
+				}//end for
+				break;
+			case "Staff":
+				for (int id = 0; id < staff(); ++id){
+					line.append(id).append(',').append(name(random)).append(',').append(random.nextInt(hospitals()));
+					emit(out, line);
+				}//end for
+				break;
+			case "Doctor":
+				for (int id = 0; id < doctors(); ++id){
+					line.append(id).append(',').append(name(random)).append(',').append(pick(random, SPECIALTIES)).append(',').append(random.nextInt(departments()));
+					emit(out, line);
+				}//end for
+				break;
+			case "request_maintenance":{
+				// one request per doctor at most, so (did, sid) is unique
+				int[] doctorIds = distinct(random, doctors(), scaled(REQUESTS));
+				for (int did : doctorIds){
+					line.append(1 + random.nextInt(5)).append(',').append(pick(random, DEPARTMENTS)).append(',').append(pick(random, TIME_SLOTS))
+						.append(',').append(did).append(',').append(random.nextInt(staff()));
+					emit(out, line);
+				}//end for
+				break;
+			}
+			case "searches":{
+				// one search per patient at most, so (hid, pid, aid) is unique
+				int[] patientIds = distinct(random, patients(), scaled(SEARCHES));
+				for (int pid : patientIds){
+					line.append(random.nextInt(hospitals())).append(',').append(pid).append(',').append(random.nextInt(appointments()));
+					emit(out, line);
+				}//end for
+				break;
+			}
+			case "schedules":{
+				int[] appointmentIds = distinct(random, appointments(), scaled(SCHEDULES));
+				for (int aid : appointmentIds){
+					line.append(aid).append(',').append(random.nextInt(staff()));
+					emit(out, line);
+				}//end for
+				break;
+			}
+			case "has_appointment":{
+				int[] appointmentIds = distinct(random, appointments(), scaled(HAS_APPOINTMENTS));
+				for (int aid : appointmentIds){
+					line.append(aid).append(',').append(random.nextInt(doctors()));
+					emit(out, line);
+				}//end for
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown table " + table.name);
+		}
+		out.flush();
+	}//end write
+
+	/**
+	 * Method to write all tables as files named like the shipped ones.
+	 *
+	 * @param dir the output directory, created if missing
+	 */
+	public void writeDirectory(File dir) throws IOException {
+		dir.mkdirs();
+		for (BulkLoader.Table table : BulkLoader.TABLES){
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, table.file)), StandardCharsets.UTF_8), BulkLoader.BUFFER_SIZE)){
+				write(table, out);
+			}
+		}//end for
+	}
+
+	/**
+	 * Method to feed the BulkLoader straight from the generator.  Each table
+	 * is generated by its own thread into a pipe the loader reads from, so
+	 * nothing is written to disk.
+	 *
+	 * @return the source of all tables
+	 */
+	public BulkLoader.Source source(){
+		return table -> {
+			final PipedReader in = new PipedReader(BulkLoader.BUFFER_SIZE);
+			final PipedWriter pipe = new PipedWriter(in);
+			Thread writer = new Thread(() -> {
+				try (Writer out = new BufferedWriter(pipe, BulkLoader.BUFFER_SIZE)){
+					write(table, out);
+				}catch (IOException e){
+					// the loader stopped reading, it reports its own error
+				}//end try
+			}, "generate-" + table.name);
+			writer.setDaemon(true);
+			writer.start();
+			return in;
+		};
+	}
+
+	private int scaled(int rows){
+		return (int) Math.max(1, Math.round(rows * this._scaleFactor));
+	}
+
+	private static void emit(Writer out, StringBuilder line) throws IOException {
+		line.append('\n');
+		out.append(line);
+		line.setLength(0);
+	}
+
+	private static String pick(Random random, String[] values){
+		return values[random.nextInt(values.length)];
+	}
+
+	private static String name(Random random){
+		return pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES);
+	}
+
+	/*
+	 * past slots are 'PA', later ones mostly available or active
+	 */
+	private static String status(Random random, LocalDate day){
+		if (day.isBefore(TODAY))
+			return "PA";
+		int p = random.nextInt(100);
+		if (p < 45)
+			return "AV";
+		if (p < 85)
+			return "AC";
+		return "WL";
+	}
+
+	/*
+	 * returns count distinct values out of 0..bound-1 (a partial shuffle)
+	 */
+	private static int[] distinct(Random random, int bound, int count){
+		int[] values = new int[bound];
+		for (int i = 0; i < bound; ++i)
+			values[i] = i;
+		count = Math.min(count, bound);
+		for (int i = 0; i < count; ++i){
+			int j = i + random.nextInt(bound - i);
+			int swap = values[i];
+			values[i] = values[j];
+			values[j] = swap;
+		}//end for
+		int[] result = new int[count];
+		System.arraycopy(values, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Writes a data set to a directory or loads it into a database.
+	 *
+	 * @param args <scale factor> <seed> (-dir <output dir> | -db <dbname> <port> <user> [<parallel loads>])
+	 */
+	public static void main(String[] args){
+		boolean toDir = args.length == 4 && args[2].equals("-dir");
+		boolean toDb = (args.length == 6 || args.length == 7) && args[2].equals("-db");
+		if (!toDir && !toDb){
+			System.err.println("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName() +
+					" <scale factor> <seed> (-dir <output dir> | -db <dbname> <port> <user> [<parallel loads>])");
+			return;
+		}//end if
+		DataGenerator generator = new DataGenerator(Long.parseLong(args[1]), Double.parseDouble(args[0]));
+		ConnectionPool pool = null;
+		try{
+			long start = System.nanoTime();
+			if (toDir){
+				generator.writeDirectory(new File(args[3]));
+				System.out.println(String.format("Wrote scale factor %s to %s in %.1f s", args[0], args[3], (System.nanoTime() - start) / 1e9));
+				return;
+			}//end if
+			int parallel = args.length == 7 ? Integer.parseInt(args[6]) : 4;
+			pool = new ConnectionPool(DBproject.connectionUrl(args[3], args[4]), DBproject.connectionProperties(args[5], ""),
+					0, parallel, SessionServer.IDLE_TIMEOUT_MILLIS, SessionServer.BORROW_TIMEOUT_MILLIS);
+			List<BulkLoader.Result> results = new BulkLoader(pool).loadAll(generator.source());
+			BulkLoader.report(results, System.nanoTime() - start);
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (pool != null)
+				pool.close();
+		}//end try
+	}
+}//end DataGenerator
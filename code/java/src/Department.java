@@ -0,0 +1,39 @@
+/**
+ * This class holds a row of the Department table.
+ *
+ */
+
+public class Department{
+	public static final RowMapper.Factory<Department> MAPPER = rsmd -> {
+		final int id = RowMapper.column(rsmd, "dept_ID");
+		final int name = RowMapper.column(rsmd, "name");
+		final int hid = RowMapper.column(rsmd, "hid");
+		return rs -> new Department(rs.getInt(id), rs.getString(name), rs.getInt(hid));
+	};
+
+	private final int _id;
+	private final String _name;
+	private final int _hospitalId;
+
+	public Department(int id, String name, int hospitalId){
+		this._id = id;
+		this._name = name;
+		this._hospitalId = hospitalId;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	public int getHospitalId(){
+		return this._hospitalId;
+	}
+
+	public String toString(){
+		return "Department " + this._id + " " + this._name;
+	}
+}//end Department
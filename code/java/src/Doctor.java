@@ -0,0 +1,72 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds a row of the Doctor table.
+ *
+ */
+
+public class Doctor{
+	//the column names of "Select * from Doctor", as printed by the menu
+	public static final String[] COLUMNS = { "doctor_id", "name", "specialty", "did" };
+
+	public static final RowMapper.Factory<Doctor> MAPPER = rsmd -> {
+		final int id = RowMapper.column(rsmd, "doctor_ID");
+		final int name = RowMapper.column(rsmd, "name");
+		final int specialty = RowMapper.column(rsmd, "specialty");
+		final int did = RowMapper.column(rsmd, "did");
+		return rs -> new Doctor(rs.getInt(id), rs.getString(name), rs.getString(specialty), rs.getInt(did));
+	};
+
+	private final int _id;
+	private final String _name;
+	private final String _specialty;
+	private final int _departmentId;
+
+	public Doctor(int id, String name, String specialty, int departmentId){
+		this._id = id;
+		this._name = name;
+		this._specialty = specialty;
+		this._departmentId = departmentId;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	public String getSpecialty(){
+		return this._specialty;
+	}
+
+	public int getDepartmentId(){
+		return this._departmentId;
+	}
+
+	/**
+	 * @return the values as printed for COLUMNS
+	 */
+	public List<String> toRow(){
+		List<String> row = new ArrayList<String>(COLUMNS.length);
+		row.add(Integer.toString(this._id));
+		row.add(this._name);
+		row.add(this._specialty);
+		row.add(Integer.toString(this._departmentId));
+		return row;
+	}
+
+	/**
+	 * @return the doctor with the given ID, null if there is none
+	 */
+	public static Doctor find(DBproject esql, int docID) throws SQLException {
+		return esql.executeQueryAndMapFirst(DBproject.DOCTOR_BY_ID, MAPPER, docID);
+	}
+
+	public String toString(){
+		return "Doctor " + this._id + " " + this._name;
+	}
+}//end Doctor
@@ -0,0 +1,167 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class streams the appointment_events outbox to an EventSink.  Each
+ * batch is read, delivered and deleted in one transaction: a batch that
+ * failed to deliver, or whose delete did not commit, stays in the outbox
+ * and is delivered again (at least once).
+ *
+ * Events are delivered in event_id order.  The events of one appointment
+ * are written under its row lock, so they commit in that order too and
+ * reach the sink in the order they happened; events of different
+ * appointments committing at once may pass each other.  The batch rows
+ * are locked while they are delivered, so a second relay on the same
+ * outbox waits for the first rather than delivering its events twice.
+ *
+ * The relay listens on the channel appointment_events, which the outbox
+ * notifies on every insert, and otherwise only checks the outbox every
+ * pollMillis.
+ *
+ */
+
+public class EventRelay{
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final long DEFAULT_POLL_MILLIS = 5000;
+	public static final String CHANNEL = "appointment_events";
+	//time before a failed batch is tried again
+	static final long RETRY_MILLIS = 5000;
+
+	static final String NEXT = "select * from appointment_events order by event_id limit ? for update";
+	static final String DELIVERED = "delete from appointment_events where event_id = any(?)";
+
+	private final DBproject _esql;
+	private final EventSink _sink;
+	private final int _batchSize;
+	private long _delivered = 0;
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param esql the session of the relay, pinned while it runs
+	 * @param sink receives the events
+	 * @param batchSize the events read and delivered at a time
+	 */
+	public EventRelay(DBproject esql, EventSink sink, int batchSize){
+		this._esql = esql;
+		this._sink = sink;
+		this._batchSize = batchSize;
+	}
+
+	/**
+	 * @return the number of events delivered so far
+	 */
+	public long getDelivered(){
+		return this._delivered;
+	}
+
+	/**
+	 * Method to deliver the next batch of events.
+	 *
+	 * @return the number of events delivered, 0 if the outbox is empty
+	 * @throws java.sql.SQLException when the outbox could not be read or
+	 * the batch not deleted, it is delivered again then
+	 * @throws java.io.IOException when the sink failed, the batch stays in the outbox
+	 */
+	public int relayBatch() throws SQLException, IOException {
+		Connection conn = this._esql.pin();
+		boolean autoCommit = conn.getAutoCommit();
+		try{
+			conn.setAutoCommit(false);
+			List<AppointmentEvent> events = this._esql.executeQueryAndMap(NEXT, AppointmentEvent.MAPPER, this._batchSize);
+			if (!events.isEmpty()){
+				this._sink.deliver(events);
+				long[] ids = new long[events.size()];
+				for (int i = 0; i < ids.length; ++i)
+					ids[i] = events.get(i).getId();
+				this._esql.executeUpdate(DELIVERED, ids);
+			}//end if
+			conn.commit();
+			this._delivered += events.size();
+			return events.size();
+		}catch (SQLException | IOException | RuntimeException e){
+			conn.rollback();
+			throw e;
+		}finally{
+			conn.setAutoCommit(autoCommit);
+		}//end try
+	}
+
+	/**
+	 * Method to relay the events until close is called, waking up on the
+	 * notifications of the outbox.  Failures are reported and the batch is
+	 * tried again after a pause.
+	 *
+	 * @param pollMillis the time to wait for a notification before checking the outbox anyway
+	 */
+	public void run(long pollMillis){
+		Connection conn = null;
+		while (!this._closed){
+			try{
+				if (conn == null){
+					conn = this._esql.pin();
+					this._esql.executeUpdate("LISTEN " + CHANNEL);
+				}//end if
+				// drains the outbox, then waits for the next insert
+				if (relayBatch() < this._batchSize)
+					conn.unwrap(PGConnection.class).getNotifications((int) pollMillis);
+			}catch (SQLException | IOException e){
+				if (this._closed)
+					break;
+				System.err.println("Event relay failed, retrying: " + e.getMessage());
+				// a lost connection is opened again by the next pin, without its LISTEN
+				if (e instanceof SQLException && DBproject.retries.isConnectionError((SQLException) e))
+					conn = null;
+				try{
+					Thread.sleep(RETRY_MILLIS);
+				}catch (InterruptedException e2){
+					break;
+				}//end try
+			}//end try
+		}//end while
+		this._esql.unpin();
+	}
+
+	/**
+	 * Method to stop run after its current batch or wait.
+	 */
+	public void close(){
+		this._closed = true;
+	}
+
+	/**
+	 * Relays the events to a file or a local TCP port until the process is
+	 * stopped.
+	 *
+	 * @param args <dbname> <port> <user> -file <path> | -socket <port> [<batch size>]
+	 */
+	public static void main(String[] args){
+		if (!((args.length == 5 || args.length == 6) && (args[3].equals("-file") || args[3].equals("-socket")))){
+			System.err.println("Usage: java [-classpath <classpath>] " + EventRelay.class.getName() +
+					" <dbname> <port> <user> -file <path> | -socket <port> [<batch size>]");
+			return;
+		}//end if
+		DBproject esql = null;
+		EventSink sink = null;
+		int status = 0;
+		try{
+			sink = args[3].equals("-file") ? new EventSink.FileSink(new File(args[4])) : new EventSink.SocketSink(Integer.parseInt(args[4]));
+			esql = new DBproject(args[0], args[1], args[2], "");
+			int batchSize = args.length == 6 ? Integer.parseInt(args[5]) : DEFAULT_BATCH_SIZE;
+			new EventRelay(esql, sink, batchSize).run(DEFAULT_POLL_MILLIS);
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			status = 1;
+		}finally{
+			if (sink != null)
+				sink.close();
+			if (esql != null)
+				esql.cleanup();
+		}//end try
+		System.exit(status);
+	}
+}//end EventRelay
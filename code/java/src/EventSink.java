@@ -0,0 +1,136 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * This interface receives the batches of appointment events relayed by
+ * EventRelay.  A batch counts as delivered once deliver returns; if it
+ * throws, the same events are delivered again later, so a sink must not
+ * lose a batch it returned from but may see a batch twice.
+ *
+ */
+
+public interface EventSink{
+	/**
+	 * Method to deliver a batch of events, in event order.
+	 *
+	 * @param events the events, at least one
+	 * @throws java.io.IOException when the batch could not be delivered
+	 */
+	void deliver(List<AppointmentEvent> events) throws IOException;
+
+	void close();
+
+	/**
+	 * This class appends the events to a file, one JSON line each, and
+	 * forces every batch to disk before it counts as delivered.
+	 */
+	class FileSink implements EventSink{
+		private final FileOutputStream _file;
+		private final Writer _out;
+
+		public FileSink(File file) throws IOException {
+			this._file = new FileOutputStream(file, true);
+			this._out = new BufferedWriter(new OutputStreamWriter(this._file, StandardCharsets.UTF_8));
+		}
+
+		public void deliver(List<AppointmentEvent> events) throws IOException {
+			for (AppointmentEvent event : events){
+				this._out.write(event.toJson());
+				this._out.write('\n');
+			}//end for
+			this._out.flush();
+			this._file.getChannel().force(false);
+		}
+
+		public void close(){
+			try{
+				this._out.close();
+			}catch (IOException e){
+				// ignored.
+			}//end try
+		}
+	}//end FileSink
+
+	/**
+	 * This class writes the events to a TCP port of this machine, one JSON
+	 * line each.  The connection is opened on the first batch and again on
+	 * the batch after a failure.
+	 */
+	class SocketSink implements EventSink{
+		private final int _port;
+		private Socket _socket = null;
+		private Writer _out = null;
+
+		public SocketSink(int port){
+			this._port = port;
+		}
+
+		public void deliver(List<AppointmentEvent> events) throws IOException {
+			try{
+				if (this._socket == null){
+					this._socket = new Socket(InetAddress.getLoopbackAddress(), this._port);
+					this._out = new BufferedWriter(new OutputStreamWriter(this._socket.getOutputStream(), StandardCharsets.UTF_8));
+				}//end if
+				for (AppointmentEvent event : events){
+					this._out.write(event.toJson());
+					this._out.write('\n');
+				}//end for
+				this._out.flush();
+			}catch (IOException e){
+				close();
+				throw e;
+			}//end try
+		}
+
+		public void close(){
+			if (this._socket != null){
+				try{
+					this._socket.close();
+				}catch (IOException e){
+					// ignored.
+				}//end try
+				this._socket = null;
+				this._out = null;
+			}//end if
+		}
+	}//end SocketSink
+
+	/**
+	 * This class keeps the events in memory for a consumer in the same
+	 * process, e.g. a test.  Delivery blocks while the queue is full.
+	 */
+	class QueueSink implements EventSink{
+		private final BlockingQueue<AppointmentEvent> _queue;
+
+		public QueueSink(int capacity){
+			this._queue = new LinkedBlockingQueue<AppointmentEvent>(capacity);
+		}
+
+		public BlockingQueue<AppointmentEvent> getQueue(){
+			return this._queue;
+		}
+
+		public void deliver(List<AppointmentEvent> events) throws IOException {
+			try{
+				for (AppointmentEvent event : events)
+					this._queue.put(event);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while delivering events");
+			}//end try
+		}
+
+		public void close(){
+		}
+	}//end QueueSink
+}//end EventSink
@@ -0,0 +1,32 @@
+/**
+ * This class holds a row of the Hospital table.
+ *
+ */
+
+public class Hospital{
+	public static final RowMapper.Factory<Hospital> MAPPER = rsmd -> {
+		final int id = RowMapper.column(rsmd, "hospital_ID");
+		final int name = RowMapper.column(rsmd, "name");
+		return rs -> new Hospital(rs.getInt(id), rs.getString(name));
+	};
+
+	private final int _id;
+	private final String _name;
+
+	public Hospital(int id, String name){
+		this._id = id;
+		this._name = name;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	public String toString(){
+		return "Hospital " + this._id + " " + this._name;
+	}
+}//end Hospital
@@ -0,0 +1,44 @@
+import java.sql.SQLException;
+
+/**
+ * This class hands out primary keys from blocks reserved on a database
+ * sequence.  A block costs one nextval round trip and then serves
+ * BLOCK_SIZE IDs from memory, without scanning the table.  IDs of a block
+ * that is not used up (e.g. when the session ends) are skipped for good.
+ *
+ */
+
+public class IdAllocator{
+	//IDs per reserved block, must match the INCREMENT BY of the sequences in create.sql
+	public static final int BLOCK_SIZE = 1000;
+
+	static final String NEXT_BLOCK = "Select nextval(cast(? as regclass))";
+
+	private final String _sequence;
+	private int _next = 0;
+	private int _end = 0;
+
+	/**
+	 * @param sequence name of the DB sequence the blocks are reserved on
+	 */
+	public IdAllocator(String sequence){
+		this._sequence = sequence;
+	}
+
+	/**
+	 * Method to obtain a new ID, reserving the next block when the current
+	 * one is used up.
+	 *
+	 * @param esql the session used to reserve a block
+	 * @return an ID no other caller receives
+	 * @throws java.sql.SQLException when the block could not be reserved
+	 */
+	public synchronized int next(DBproject esql) throws SQLException {
+		if (this._next >= this._end){
+			int start = esql.executeQueryAndMapFirst(NEXT_BLOCK, RowMapper.FIRST_INT, this._sequence);
+			this._next = start;
+			this._end = start + BLOCK_SIZE;
+		}//end if
+		return this._next++;
+	}//end next
+}//end IdAllocator
@@ -0,0 +1,107 @@
+/**
+ * This class maps int keys to values without boxing the keys: they are kept
+ * in an int array with open addressing (linear probing), so a lookup is a
+ * hash and a few array reads.  It is not synchronized; ReferenceData builds
+ * a new map for every reload and only reads it afterwards.
+ *
+ */
+
+public class IntMap<V>{
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] _keys;
+	private Object[] _values;
+	private int _size = 0;
+
+	public IntMap(int expectedSize){
+		int capacity = MIN_CAPACITY;
+		// at most half full
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		this._keys = new int[capacity];
+		this._values = new Object[capacity];
+	}
+
+	/**
+	 * @return the value of the key, null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key){
+		int mask = this._keys.length - 1;
+		for (int i = hash(key) & mask; this._values[i] != null; i = (i + 1) & mask){
+			if (this._keys[i] == key)
+				return (V) this._values[i];
+		}//end for
+		return null;
+	}
+
+	public boolean containsKey(int key){
+		return get(key) != null;
+	}
+
+	/**
+	 * Method to map the key to the value.
+	 *
+	 * @param value the value, not null
+	 * @return the previous value of the key, null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value){
+		if (value == null)
+			throw new NullPointerException("IntMap values cannot be null");
+		if ((this._size + 1) * 2 > this._keys.length)
+			resize(this._keys.length * 2);
+		int mask = this._keys.length - 1;
+		int i = hash(key) & mask;
+		while (this._values[i] != null){
+			if (this._keys[i] == key){
+				V previous = (V) this._values[i];
+				this._values[i] = value;
+				return previous;
+			}//end if
+			i = (i + 1) & mask;
+		}//end while
+		this._keys[i] = key;
+		this._values[i] = value;
+		++this._size;
+		return null;
+	}
+
+	public int size(){
+		return this._size;
+	}
+
+	/**
+	 * @return the keys, in no particular order
+	 */
+	public int[] keys(){
+		int[] keys = new int[this._size];
+		int n = 0;
+		for (int i = 0; i < this._keys.length; ++i){
+			if (this._values[i] != null)
+				keys[n++] = this._keys[i];
+		}//end for
+		return keys;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void resize(int capacity){
+		int[] keys = this._keys;
+		Object[] values = this._values;
+		this._keys = new int[capacity];
+		this._values = new Object[capacity];
+		this._size = 0;
+		for (int i = 0; i < keys.length; ++i){
+			if (values[i] != null)
+				put(keys[i], (V) values[i]);
+		}//end for
+	}
+
+	/*
+	 * spreads consecutive IDs over the table
+	 */
+	private static int hash(int key){
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}//end IntMap
@@ -0,0 +1,99 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts durations in log-linear buckets, like HdrHistogram:
+ * every power of two is split into SUB_BUCKETS equal buckets, so a
+ * reported percentile is at most 1/SUB_BUCKETS (about 3%) above the
+ * recorded value, at any magnitude.  Recording is lock free and may be
+ * done by any number of threads at once.
+ *
+ */
+
+public class LatencyHistogram{
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//enough buckets for any non-negative long
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one value, negative values count as 0.
+	 *
+	 * @param nanos the duration in nanoseconds
+	 */
+	public void record(long nanos){
+		long value = Math.max(nanos, 0);
+		this._counts.incrementAndGet(index(value));
+		this._count.incrementAndGet();
+		this._sum.addAndGet(value);
+		this._max.accumulateAndGet(value, Math::max);
+	}
+
+	public long getCount(){
+		return this._count.get();
+	}
+
+	/**
+	 * @return the sum of all recorded values in nanoseconds
+	 */
+	public long getSum(){
+		return this._sum.get();
+	}
+
+	/**
+	 * @return the largest recorded value in nanoseconds
+	 */
+	public long getMax(){
+		return this._max.get();
+	}
+
+	/**
+	 * Method to return the value below which the given fraction of the
+	 * recorded values lie.
+	 *
+	 * @param quantile the fraction, between 0 and 1
+	 * @return the upper bound of the bucket holding that value, at most the maximum
+	 */
+	public long getValueAtQuantile(double quantile){
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			counts[i] = this._counts.get(i);
+			total += counts[i];
+		}//end for
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValue(i), getMax());
+		}//end for
+		return getMax();
+	}
+
+	/*
+	 * values below SUB_BUCKETS have a bucket each, larger ones share a
+	 * bucket with the values that agree in their top SUB_BUCKET_BITS + 1 bits
+	 */
+	static int index(long value){
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestValue(int index){
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}//end LatencyHistogram
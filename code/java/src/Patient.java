@@ -0,0 +1,82 @@
+import java.sql.SQLException;
+
+/**
+ * This class holds a row of the Patient table.
+ *
+ */
+
+public class Patient{
+	public static final RowMapper.Factory<Patient> MAPPER = rsmd -> {
+		final int id = RowMapper.column(rsmd, "patient_ID");
+		final int name = RowMapper.column(rsmd, "name");
+		final int gender = RowMapper.column(rsmd, "gtype");
+		final int age = RowMapper.column(rsmd, "age");
+		final int address = RowMapper.column(rsmd, "address");
+		final int numberOfAppts = RowMapper.column(rsmd, "number_of_appts");
+		return rs -> {
+			int appts = rs.getInt(numberOfAppts);
+			Integer count = rs.wasNull() ? null : appts;
+			return new Patient(rs.getInt(id), rs.getString(name), rs.getString(gender).charAt(0), rs.getInt(age), rs.getString(address), count);
+		};
+	};
+
+	private final int _id;
+	private final String _name;
+	private final char _gender;
+	private final int _age;
+	private final String _address;
+	private final Integer _numberOfAppts;
+
+	public Patient(int id, String name, char gender, int age, String address, Integer numberOfAppts){
+		this._id = id;
+		this._name = name;
+		this._gender = gender;
+		this._age = age;
+		this._address = address;
+		this._numberOfAppts = numberOfAppts;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	/**
+	 * @return 'F' or 'M'
+	 */
+	public char getGender(){
+		return this._gender;
+	}
+
+	public int getAge(){
+		return this._age;
+	}
+
+	/**
+	 * @return the address, may be null
+	 */
+	public String getAddress(){
+		return this._address;
+	}
+
+	/**
+	 * @return the number of appointments, may be null
+	 */
+	public Integer getNumberOfAppts(){
+		return this._numberOfAppts;
+	}
+
+	/**
+	 * @return the patient with the given ID, null if there is none
+	 */
+	public static Patient find(DBproject esql, int pid) throws SQLException {
+		return esql.executeQueryAndMapFirst(DBproject.PATIENT_BY_ID, MAPPER, pid);
+	}
+
+	public String toString(){
+		return "Patient " + this._id + " " + this._name;
+	}
+}//end Patient
@@ -0,0 +1,210 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks that the menu queries are planned with the indexes of
+ * create.sql.  It explains every menu query with values taken from the
+ * database and reports each sequential scan of a table holding at least
+ * minRows rows; small tables are scanned whatever the indexes, so the
+ * check is meant to run on a large data set, e.g. one written by
+ * DataGenerator at scale factor 100 or more.
+ *
+ * Reports 7 and 8 read the counters of all doctors (see StatusCounters), so
+ * their sequential scans are listed but not counted as failures.
+ *
+ * On a schema partitioned by partition.sql the queries on a date range must
+ * also be planned on the partitions of Appointment and searches covering
+ * their dates only.
+ *
+ */
+
+public class PlanChecker{
+	public static final long DEFAULT_MIN_ROWS = 10000;
+
+	static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\S+)");
+	static final Pattern PARTITION = Pattern.compile("\\b(?:appointment|searches)_p(\\d{6})\\b");
+	static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+
+	/**
+	 * This class names one query to explain and the values to bind.
+	 */
+	static class Check{
+		final String name;
+		final String sql;
+		final Object[] params;
+		//reads the whole table by design
+		final boolean aggregate;
+		//the dates read, for the partitions to prune
+		LocalDate from;
+		LocalDate to;
+
+		Check(String name, String sql, boolean aggregate, Object... params){
+			this.name = name;
+			this.sql = sql;
+			this.aggregate = aggregate;
+			this.params = params;
+		}
+
+		Check dates(LocalDate from, LocalDate to){
+			this.from = from;
+			this.to = to;
+			return this;
+		}
+	}//end Check
+
+	private final DBproject _esql;
+	private final long _minRows;
+
+	public PlanChecker(DBproject esql, long minRows){
+		this._esql = esql;
+		this._minRows = minRows;
+	}
+
+	/**
+	 * Method to explain all menu queries and print their scans.
+	 *
+	 * @return the failures, one line per scanned table, empty if all queries use indexes
+	 * @throws java.sql.SQLException when a query could not be explained
+	 */
+	public List<String> check() throws SQLException {
+		List<String> failures = new ArrayList<String>();
+		for (Check check : checks()){
+			List<String> scans = new ArrayList<String>();
+			Set<String> unpruned = new TreeSet<String>();
+			for (String line : explain(check.sql, check.params)){
+				Matcher m = SEQ_SCAN.matcher(line);
+				if (m.find() && estimatedRows(m.group(1)) >= this._minRows)
+					scans.add(m.group(1));
+				m = PARTITION.matcher(line);
+				while (check.from != null && m.find()){
+					YearMonth month = YearMonth.parse(m.group(1), MONTH);
+					if (month.isBefore(YearMonth.from(check.from)) || month.isAfter(YearMonth.from(check.to)))
+						unpruned.add(m.group());
+				}//end while
+			}//end for
+			if (!unpruned.isEmpty()){
+				System.out.println("FAIL  " + check.name + " (partitions): " + String.join(", ", unpruned));
+				for (String partition : unpruned)
+					failures.add(check.name + ": plans partition " + partition + " outside its dates");
+			}//end if
+			if (scans.isEmpty()){
+				System.out.println("OK    " + check.name);
+			}else if (check.aggregate){
+				System.out.println("SCAN  " + check.name + " (aggregate): " + String.join(", ", scans));
+			}else{
+				System.out.println("FAIL  " + check.name + ": " + String.join(", ", scans));
+				for (String table : scans)
+					failures.add(check.name + ": Seq Scan on " + table);
+			}//end if
+		}//end for
+		return failures;
+	}//end check
+
+	/*
+	 * the menu queries, with values of rows that exist
+	 */
+	List<Check> checks() throws SQLException {
+		List<String> doctor = first("Select name, specialty, did, doctor_ID from Doctor limit 1");
+		List<String> patient = first("Select name, gtype, age, address, number_of_appts, patient_ID from Patient where address is not null and number_of_appts is not null limit 1");
+		List<String> appointment = first("Select cast(adate as varchar), time_slot, status, appnt_ID from Appointment limit 1");
+		List<String> booked = first("Select h.doctor_id, cast(a.adate as varchar) from has_appointment h, Appointment a where a.appnt_ID = h.appt_id limit 1");
+		List<String> available = first("Select d.name, cast(a.adate as varchar) from Appointment a, searches s, Department d where a.status = 'AV' and a.appnt_ID = s.aid and s.hid = d.hid limit 1");
+
+		int docID = Integer.parseInt(doctor.get(3));
+		int pid = Integer.parseInt(patient.get(5));
+		int appID = Integer.parseInt(appointment.get(3));
+		LocalDate from = LocalDate.parse(booked.get(1));
+
+		List<Check> checks = new ArrayList<Check>();
+		checks.add(new Check("1 find doctor", DBproject.FIND_DOCTOR, false, doctor.get(0), doctor.get(1), Integer.parseInt(doctor.get(2))));
+		checks.add(new Check("2 find patient", DBproject.FIND_PATIENT, false,
+				patient.get(0), patient.get(1), Integer.parseInt(patient.get(2)), patient.get(3), Integer.parseInt(patient.get(4))));
+		checks.add(new Check("3 find appointment", DBproject.FIND_APPOINTMENT, false, appointment.get(0), appointment.get(1), appointment.get(2)));
+		checks.add(new Check("4 patient by ID", DBproject.PATIENT_BY_ID, false, pid));
+		checks.add(new Check("4 doctor by ID", DBproject.DOCTOR_BY_ID, false, docID));
+		checks.add(new Check("4 appointment by ID", DBproject.APPOINTMENT_BY_ID, false, appID));
+		checks.add(new Check("4 book appointment", BookingEngine.BOOK, false, appID, pid, docID, pid));
+		checks.add(new Check("4 promote next waiter", Waitlist.PROMOTE, false, appID));
+		checks.add(new Check("5 appointments of doctor", DBproject.LIST_APPOINTMENTS_OF_DOCTOR, false,
+				from.toString(), from.plusDays(30).toString(), Integer.parseInt(booked.get(0))).dates(from, from.plusDays(30)));
+		LocalDate date = LocalDate.parse(available.get(1));
+		checks.add(new Check("6 available appointments of department", DBproject.LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT, false,
+				available.get(0), available.get(1)).dates(date, date));
+		List<List<String>> hospitals = this._esql.executeQueryAndReturnResult("Select hid from Department where name = ?", available.get(0));
+		int[] hids = new int[hospitals.size()];
+		for (int i = 0; i < hids.length; ++i)
+			hids[i] = Integer.parseInt(hospitals.get(i).get(0));
+		checks.add(new Check("6 available appointments of hospitals", DBproject.LIST_AVAILABLE_APPOINTMENTS_OF_HOSPITALS, false,
+				hids, available.get(1)).dates(date, date));
+		checks.add(new Check("6 earliest slots of hospitals", SlotSearch.SEARCH, false,
+				hids, date.plusDays(SlotSearch.DEFAULT_DAYS).toString(), available.get(1), "", Integer.MIN_VALUE, SlotSearch.DEFAULT_LIMIT)
+				.dates(date, date.plusDays(SlotSearch.DEFAULT_DAYS)));
+		checks.add(new Check("7 appointments per doctor and status", DBproject.LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR, true));
+		checks.add(new Check("8 patients per doctor with status", DBproject.FIND_PATIENTS_COUNT_WITH_STATUS, true, "WL"));
+		return checks;
+	}
+
+	private List<String> explain(String sql, Object[] params) throws SQLException {
+		List<String> lines = new ArrayList<String>();
+		for (List<String> record : this._esql.executeQueryAndReturnResult("EXPLAIN " + sql, params))
+			lines.add(record.get(0));
+		return lines;
+	}
+
+	private long estimatedRows(String table) throws SQLException {
+		List<List<String>> result = this._esql.executeQueryAndReturnResult(
+				"Select cast(reltuples as bigint) from pg_class where relname = ?", table.toLowerCase());
+		return result.isEmpty() ? 0 : Long.parseLong(result.get(0).get(0));
+	}
+
+	private List<String> first(String query) throws SQLException {
+		List<List<String>> result = this._esql.executeQueryAndReturnResult(query, DBproject.NO_PARAMS);
+		if (result.isEmpty())
+			throw new SQLException("No data to check with, nothing returned by: " + query);
+		return result.get(0);
+	}
+
+	/**
+	 * Explains the menu queries and exits with status 1 if one of them
+	 * scans a large table.
+	 *
+	 * @param args <dbname> <port> <user> [<min rows>]
+	 */
+	public static void main(String[] args){
+		if (args.length != 3 && args.length != 4){
+			System.err.println("Usage: java [-classpath <classpath>] " + PlanChecker.class.getName() + " <dbname> <port> <user> [<min rows>]");
+			return;
+		}//end if
+		DBproject esql = null;
+		int status = 1;
+		try{
+			esql = new DBproject(args[0], args[1], args[2], "");
+			// plans depend on the statistics, refresh them first
+			esql.executeUpdate("ANALYZE");
+			long minRows = args.length == 4 ? Long.parseLong(args[3]) : DEFAULT_MIN_ROWS;
+			List<String> failures = new PlanChecker(esql, minRows).check();
+			if (failures.isEmpty()){
+				System.out.println("All menu queries use indexes on tables of " + minRows + " rows or more");
+				status = 0;
+			}else{
+				System.out.println(failures.size() + " sequential scan(s) of large tables:");
+				for (String failure : failures)
+					System.out.println("  " + failure);
+			}//end if
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null)
+				esql.cleanup();
+		}//end try
+		System.exit(status);
+	}
+}//end PlanChecker
@@ -0,0 +1,449 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class measures the statements run through the DBproject execution
+ * methods.  Statements are grouped by their query shape, the SQL text with
+ * literals replaced by '?' and white space collapsed, so all calls of a
+ * menu query land in one group whatever values they use.  For each shape
+ * it keeps a latency histogram, the rows returned, the bytes fetched, the
+ * time spent waiting for a connection, the errors by SQLSTATE and the
+ * retries.  The circuit breaker trips, the statements it rejected and the
+ * reconnects of direct sessions are counted over all shapes.
+ *
+ * The numbers can be written in the Prometheus text format to a file or
+ * served on a local HTTP port, see exportFromProperties.
+ *
+ */
+
+public class QueryMetrics{
+	//further shapes are counted under OTHER, so ad hoc SQL cannot grow the registry without bound
+	public static final int MAX_SHAPES = 500;
+	static final String OTHER = "other";
+	//quantiles exported for every histogram
+	static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * This class holds the numbers of one query shape.
+	 */
+	public static class Shape{
+		final String query;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder acquireNanos = new LongAdder();
+		final LongAdder retries = new LongAdder();
+		//SQLSTATE (or "none") -> number of failed executions
+		final Map<String, LongAdder> errors = new ConcurrentHashMap<String, LongAdder>();
+
+		Shape(String query){
+			this.query = query;
+		}
+
+		public String getQuery(){
+			return this.query;
+		}
+
+		public LatencyHistogram getLatency(){
+			return this.latency;
+		}
+
+		public long getRows(){
+			return this.rows.sum();
+		}
+
+		public long getBytes(){
+			return this.bytes.sum();
+		}
+
+		public long getRetries(){
+			return this.retries.sum();
+		}
+
+		public long getErrors(){
+			long errors = 0;
+			for (LongAdder count : this.errors.values())
+				errors += count.sum();
+			return errors;
+		}
+	}//end Shape
+
+	/**
+	 * This class measures one execution.  It is started before the
+	 * connection is acquired and ended exactly once, by succeeded or failed.
+	 */
+	public class Sample{
+		final Shape shape;
+		final long start;
+		long acquired;
+		long rows = 0;
+		long bytes = 0;
+
+		Sample(Shape shape){
+			this.shape = shape;
+			this.start = System.nanoTime();
+			this.acquired = this.start;
+		}
+
+		/**
+		 * Method to mark that the connection was acquired.
+		 */
+		void acquired(){
+			this.acquired = System.nanoTime();
+			long nanos = this.acquired - this.start;
+			this.shape.acquireNanos.add(nanos);
+			_acquire.record(nanos);
+		}
+
+		void fetched(long rows, long bytes){
+			this.rows += rows;
+			this.bytes += bytes;
+		}
+
+		void succeeded(){
+			this.shape.latency.record(System.nanoTime() - this.start);
+			this.shape.rows.add(this.rows);
+			this.shape.bytes.add(this.bytes);
+		}
+
+		void failed(Exception e){
+			this.shape.latency.record(System.nanoTime() - this.start);
+			String state = (e instanceof SQLException) ? ((SQLException) e).getSQLState() : null;
+			this.shape.errors.computeIfAbsent(state == null ? "none" : state, key -> new LongAdder()).increment();
+		}
+
+		/**
+		 * Method to mark that the failed execution runs again.
+		 */
+		void retried(){
+			this.shape.retries.increment();
+		}
+	}//end Sample
+
+	//normalized query -> shape
+	private final Map<String, Shape> _shapes = new ConcurrentHashMap<String, Shape>();
+	//SQL text as passed in -> shape, saves normalizing the menu queries on every call
+	private final Map<String, Shape> _bySql = new ConcurrentHashMap<String, Shape>();
+	//time the statements waited for a connection, over all shapes
+	private final LatencyHistogram _acquire = new LatencyHistogram();
+	private final LongAdder _trips = new LongAdder();
+	private final LongAdder _rejected = new LongAdder();
+	private final LongAdder _reconnects = new LongAdder();
+	private volatile boolean _circuitOpen = false;
+	private ScheduledExecutorService _exporter = null;
+	private File _file = null;
+	private HttpServer _server = null;
+
+	/**
+	 * Method to start measuring an execution of the given statement.
+	 *
+	 * @param sql the SQL text as passed to the execution method
+	 * @return the sample to end once the statement is done
+	 */
+	public Sample start(String sql){
+		Shape shape = this._bySql.get(sql);
+		if (shape == null){
+			shape = shape(normalize(sql));
+			if (this._bySql.size() < MAX_SHAPES * 4)
+				this._bySql.put(sql, shape);
+		}//end if
+		return new Sample(shape);
+	}
+
+	/**
+	 * @return the shapes measured so far, by normalized query
+	 */
+	public Map<String, Shape> getShapes(){
+		return new TreeMap<String, Shape>(this._shapes);
+	}
+
+	public LatencyHistogram getAcquireLatency(){
+		return this._acquire;
+	}
+
+	/**
+	 * Method to count a trip of the circuit breaker.
+	 */
+	void tripped(){
+		this._trips.increment();
+		this._circuitOpen = true;
+	}
+
+	/**
+	 * Method to mark that the circuit breaker closed again.
+	 */
+	void closed(){
+		this._circuitOpen = false;
+	}
+
+	/**
+	 * Method to count a statement rejected by the open circuit breaker.
+	 */
+	void rejected(){
+		this._rejected.increment();
+	}
+
+	/**
+	 * Method to count a reconnect of a direct session.
+	 */
+	void reconnected(){
+		this._reconnects.increment();
+	}
+
+	public long getTrips(){
+		return this._trips.sum();
+	}
+
+	public long getRejected(){
+		return this._rejected.sum();
+	}
+
+	public long getReconnects(){
+		return this._reconnects.sum();
+	}
+
+	private Shape shape(String query){
+		Shape shape = this._shapes.get(query);
+		if (shape != null)
+			return shape;
+		if (this._shapes.size() >= MAX_SHAPES)
+			query = OTHER;
+		return this._shapes.computeIfAbsent(query, Shape::new);
+	}
+
+	/*
+	 * replaces string and number literals with '?' and collapses white space
+	 */
+	static String normalize(String sql){
+		StringBuilder query = new StringBuilder(sql.length());
+		int length = sql.length();
+		for (int i = 0; i < length; ++i){
+			char c = sql.charAt(i);
+			if (c == '\''){
+				// skips to the closing quote, '' is an escaped quote
+				++i;
+				while (i < length && !(sql.charAt(i) == '\'' && (i + 1 >= length || sql.charAt(i + 1) != '\'')))
+					i += sql.charAt(i) == '\'' ? 2 : 1;
+				query.append('?');
+			}else if (Character.isDigit(c) && (query.length() == 0 || !isIdentifierPart(query.charAt(query.length() - 1)))){
+				while (i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+					++i;
+				query.append('?');
+			}else if (Character.isWhitespace(c)){
+				if (query.length() > 0 && query.charAt(query.length() - 1) != ' ')
+					query.append(' ');
+			}else{
+				query.append(c);
+			}//end if
+		}//end for
+		return query.toString().trim();
+	}
+
+	private static boolean isIdentifierPart(char c){
+		return Character.isLetterOrDigit(c) || c == '_' || c == '?';
+	}
+
+	/**
+	 * Method to write all numbers in the Prometheus text format.
+	 *
+	 * @param out receives the text
+	 * @throws java.io.IOException when out fails
+	 */
+	public void writePrometheus(Writer out) throws IOException {
+		List<Shape> shapes = new ArrayList<Shape>(getShapes().values());
+
+		out.write("# HELP dbproject_query_duration_seconds Time from the start of an execution method to its end, connection wait included.\n");
+		out.write("# TYPE dbproject_query_duration_seconds summary\n");
+		for (Shape shape : shapes)
+			writeSummary(out, "dbproject_query_duration_seconds", "query=\"" + escape(shape.query) + "\"", shape.latency);
+
+		out.write("# HELP dbproject_query_rows_total Rows returned to the caller.\n");
+		out.write("# TYPE dbproject_query_rows_total counter\n");
+		for (Shape shape : shapes)
+			out.write("dbproject_query_rows_total{query=\"" + escape(shape.query) + "\"} " + shape.getRows() + "\n");
+
+		out.write("# HELP dbproject_query_bytes_total Approximate bytes of the values read by the caller.\n");
+		out.write("# TYPE dbproject_query_bytes_total counter\n");
+		for (Shape shape : shapes)
+			out.write("dbproject_query_bytes_total{query=\"" + escape(shape.query) + "\"} " + shape.getBytes() + "\n");
+
+		out.write("# HELP dbproject_query_acquire_seconds_total Time spent waiting for a connection.\n");
+		out.write("# TYPE dbproject_query_acquire_seconds_total counter\n");
+		for (Shape shape : shapes)
+			out.write("dbproject_query_acquire_seconds_total{query=\"" + escape(shape.query) + "\"} " + seconds(shape.acquireNanos.sum()) + "\n");
+
+		out.write("# HELP dbproject_query_errors_total Failed executions by SQLSTATE.\n");
+		out.write("# TYPE dbproject_query_errors_total counter\n");
+		for (Shape shape : shapes){
+			for (Map.Entry<String, LongAdder> error : new TreeMap<String, LongAdder>(shape.errors).entrySet())
+				out.write("dbproject_query_errors_total{query=\"" + escape(shape.query) + "\",sqlstate=\"" + escape(error.getKey()) + "\"} " + error.getValue().sum() + "\n");
+		}//end for
+
+		out.write("# HELP dbproject_query_retries_total Failed executions run again.\n");
+		out.write("# TYPE dbproject_query_retries_total counter\n");
+		for (Shape shape : shapes)
+			out.write("dbproject_query_retries_total{query=\"" + escape(shape.query) + "\"} " + shape.getRetries() + "\n");
+
+		out.write("# HELP dbproject_circuit_trips_total Times the circuit breaker opened.\n");
+		out.write("# TYPE dbproject_circuit_trips_total counter\n");
+		out.write("dbproject_circuit_trips_total " + getTrips() + "\n");
+		out.write("# HELP dbproject_circuit_rejected_total Statements failed at once by the open circuit breaker.\n");
+		out.write("# TYPE dbproject_circuit_rejected_total counter\n");
+		out.write("dbproject_circuit_rejected_total " + getRejected() + "\n");
+		out.write("# HELP dbproject_circuit_open Whether the circuit breaker is open (1) or closed (0).\n");
+		out.write("# TYPE dbproject_circuit_open gauge\n");
+		out.write("dbproject_circuit_open " + (this._circuitOpen ? 1 : 0) + "\n");
+		out.write("# HELP dbproject_reconnects_total Direct connections replaced after a connection error.\n");
+		out.write("# TYPE dbproject_reconnects_total counter\n");
+		out.write("dbproject_reconnects_total " + getReconnects() + "\n");
+
+		out.write("# HELP dbproject_connection_acquire_seconds Time a statement waited for a connection.\n");
+		out.write("# TYPE dbproject_connection_acquire_seconds summary\n");
+		writeSummary(out, "dbproject_connection_acquire_seconds", "", this._acquire);
+		out.flush();
+	}//end writePrometheus
+
+	private static void writeSummary(Writer out, String name, String labels, LatencyHistogram histogram) throws IOException {
+		String prefix = labels.isEmpty() ? "" : labels + ",";
+		for (double quantile : QUANTILES)
+			out.write(name + "{" + prefix + "quantile=\"" + quantile + "\"} " + seconds(histogram.getValueAtQuantile(quantile)) + "\n");
+		String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+		out.write(name + "_sum" + suffix + seconds(histogram.getSum()) + "\n");
+		out.write(name + "_count" + suffix + histogram.getCount() + "\n");
+	}
+
+	private static String seconds(long nanos){
+		return Double.toString(nanos / 1e9);
+	}
+
+	private static String escape(String value){
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Method to write all numbers to a file.  The file is replaced at once,
+	 * so a reader never sees a partial export.
+	 *
+	 * @param file the file to write
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public void exportToFile(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		try (Writer out = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8)){
+			writePrometheus(out);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Method to rewrite the file every periodMillis until close is called.
+	 *
+	 * @param file the file to write
+	 * @param periodMillis the time between two exports
+	 */
+	public synchronized void exportToFile(final File file, long periodMillis){
+		this._file = file;
+		if (this._exporter == null){
+			this._exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "metrics-export");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}//end if
+		this._exporter.scheduleWithFixedDelay(() -> {
+			try{
+				exportToFile(file);
+			}catch (IOException e){
+				System.err.println("Unable to export metrics: " + e.getMessage());
+			}//end try
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to serve the numbers on http://localhost:port/metrics until
+	 * close is called.  Only the loopback interface is bound.
+	 *
+	 * @param port the TCP port, 0 for any free port
+	 * @return the port actually bound
+	 * @throws java.io.IOException when the port cannot be opened
+	 */
+	public synchronized int serve(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> {
+			try{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				Writer text = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+				writePrometheus(text);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, buffer.size());
+				try (OutputStream body = exchange.getResponseBody()){
+					buffer.writeTo(body);
+				}
+			}finally{
+				exchange.close();
+			}//end try
+		});
+		server.setExecutor(null);
+		server.start();
+		this._server = server;
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Method to start the exports named by the system properties
+	 * metrics.port (HTTP port) and metrics.file (file rewritten every
+	 * metrics.interval milliseconds, 10 seconds by default).  Does nothing
+	 * when neither is set.
+	 *
+	 * @throws java.io.IOException when the port cannot be opened
+	 */
+	public void exportFromProperties() throws IOException {
+		String port = System.getProperty("metrics.port");
+		String file = System.getProperty("metrics.file");
+		if (port != null)
+			System.out.println("Serving metrics on http://localhost:" + serve(Integer.parseInt(port)) + "/metrics");
+		if (file != null)
+			exportToFile(new File(file), Long.parseLong(System.getProperty("metrics.interval", "10000")));
+	}
+
+	/**
+	 * Method to stop the exports.  A file export is written a last time.
+	 */
+	public synchronized void close(){
+		if (this._exporter != null){
+			this._exporter.shutdownNow();
+			this._exporter = null;
+			try{
+				exportToFile(this._file);
+			}catch (IOException e){
+				System.err.println("Unable to export metrics: " + e.getMessage());
+			}//end try
+		}//end if
+		if (this._server != null){
+			this._server.stop(0);
+			this._server = null;
+		}//end if
+	}
+}//end QueryMetrics
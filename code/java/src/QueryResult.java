@@ -0,0 +1,82 @@
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the column names and rows of a query result as
+ * strings, e.g. to hand a result from the thread that ran the query to the
+ * one that prints it.
+ *
+ */
+
+public class QueryResult{
+	final String[] columns;
+	final List<List<String>> rows;
+
+	QueryResult(String[] columns, List<List<String>> rows){
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	/**
+	 * @return the column names, empty if there are no rows
+	 */
+	public String[] getColumns(){
+		return this.columns;
+	}
+
+	public List<List<String>> getRows(){
+		return this.rows;
+	}
+
+	public int size(){
+		return this.rows.size();
+	}
+
+	/**
+	 * Method to output the rows like executeQueryAndPrintResult.
+	 *
+	 * @return the number of rows
+	 */
+	public int print(PrintStream out){
+		if (this.rows.isEmpty())
+			return 0;
+		for (String column : this.columns)
+			out.print(column + "\t");
+		out.println();
+		for (List<String> record : this.rows){
+			for (String value : record)
+				out.print(value + "\t");
+			out.println();
+		}//end for
+		return this.rows.size();
+	}
+
+	/**
+	 * Method to run a parameterized query and keep its column names and rows.
+	 *
+	 * @param esql the session to run the query on
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the result
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static QueryResult collect(DBproject esql, String query, Object... params) throws SQLException {
+		final List<List<String>> rows = new ArrayList<List<String>>();
+		final String[][] columns = { new String[0] };
+		esql.executeQueryAndStream(query, DBproject.DEFAULT_FETCH_SIZE, row -> {
+			int numCol = row.getColumnCount();
+			if (columns[0].length == 0){
+				columns[0] = new String[numCol];
+				for (int i = 1; i <= numCol; ++i)
+					columns[0][i - 1] = row.getColumnName(i);
+			}//end if
+			List<String> record = new ArrayList<String>(numCol);
+			for (int i = 1; i <= numCol; ++i)
+				record.add(row.getString(i));
+			rows.add(record);
+		}, params);
+		return new QueryResult(columns[0], rows);
+	}
+}//end QueryResult
@@ -0,0 +1,270 @@
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class keeps Doctor, Department, Hospital and Staff in memory, so the
+ * menu checks that a doctor exists and finds the hospitals of a department
+ * name without asking the database.  The tables are loaded at startup into
+ * int keyed maps; the triggers of create.sql notify the channel
+ * reference_data with the name of every changed table, and a listener
+ * thread reloads that table and swaps its map.
+ *
+ * Lookups see a change once the listener has reloaded it, shortly after
+ * the commit.  A missing key may just not be loaded yet, so callers fall
+ * back to the database on misses rather than trust them.
+ *
+ */
+
+public class ReferenceData{
+	public static final String CHANNEL = "reference_data";
+	//time the listener waits for notifications before checking it was closed
+	static final int POLL_MILLIS = 1000;
+	//time before the listener reconnects after losing its connection
+	static final long RETRY_MILLIS = 5000;
+
+	static final String ALL_DOCTORS = "Select * from Doctor";
+	static final String ALL_DEPARTMENTS = "Select * from Department";
+	static final String ALL_HOSPITALS = "Select * from Hospital";
+	static final String ALL_STAFF = "Select * from Staff";
+
+	//replaced as a whole on every reload, never changed afterwards
+	private volatile IntMap<Doctor> _doctors = null;
+	private volatile IntMap<Department> _departments = null;
+	private volatile IntMap<Hospital> _hospitals = null;
+	private volatile IntMap<Staff> _staff = null;
+	//department name -> IDs of the hospitals having one
+	private volatile Map<String, int[]> _hospitalsByDepartment = null;
+	private volatile long _reloads = 0;
+
+	private ConnectionPool _pool = null;
+	private Thread _listener = null;
+	private volatile boolean _closed = false;
+
+	/**
+	 * @return the doctor with the given ID, null if unknown or not loaded
+	 */
+	public Doctor doctor(int docID){
+		IntMap<Doctor> doctors = this._doctors;
+		return doctors == null ? null : doctors.get(docID);
+	}
+
+	/**
+	 * @return the department with the given ID, null if unknown or not loaded
+	 */
+	public Department department(int did){
+		IntMap<Department> departments = this._departments;
+		return departments == null ? null : departments.get(did);
+	}
+
+	/**
+	 * @return the hospital with the given ID, null if unknown or not loaded
+	 */
+	public Hospital hospital(int hid){
+		IntMap<Hospital> hospitals = this._hospitals;
+		return hospitals == null ? null : hospitals.get(hid);
+	}
+
+	/**
+	 * @return the staff member with the given ID, null if unknown or not loaded
+	 */
+	public Staff staff(int sid){
+		IntMap<Staff> staff = this._staff;
+		return staff == null ? null : staff.get(sid);
+	}
+
+	/**
+	 * Method to resolve a department name to the hospitals that have a
+	 * department of that name.
+	 *
+	 * @param departmentName the department name
+	 * @return the hospital IDs, null if the name is unknown or not loaded
+	 */
+	public int[] hospitalsOfDepartment(String departmentName){
+		Map<String, int[]> hospitals = this._hospitalsByDepartment;
+		return hospitals == null ? null : hospitals.get(departmentName);
+	}
+
+	/**
+	 * @return the number of tables (re)loaded so far
+	 */
+	public long getReloads(){
+		return this._reloads;
+	}
+
+	/**
+	 * Method to load all four tables.
+	 *
+	 * @param esql the session to read them with
+	 * @throws java.sql.SQLException when a table could not be read
+	 */
+	public void load(DBproject esql) throws SQLException {
+		reload(esql, "doctor");
+		reload(esql, "department");
+		reload(esql, "hospital");
+		reload(esql, "staff");
+	}
+
+	/**
+	 * Method to reload one table, e.g. after it was notified.
+	 *
+	 * @param esql the session to read it with
+	 * @param table the table name in lower case, as notified by the triggers
+	 * @throws java.sql.SQLException when the table could not be read
+	 */
+	public void reload(DBproject esql, String table) throws SQLException {
+		switch (table){
+			case "doctor":{
+				List<Doctor> rows = esql.executeQueryAndMap(ALL_DOCTORS, Doctor.MAPPER);
+				IntMap<Doctor> doctors = new IntMap<Doctor>(rows.size());
+				for (Doctor doctor : rows)
+					doctors.put(doctor.getId(), doctor);
+				this._doctors = doctors;
+				break;
+			}
+			case "department":{
+				List<Department> rows = esql.executeQueryAndMap(ALL_DEPARTMENTS, Department.MAPPER);
+				IntMap<Department> departments = new IntMap<Department>(rows.size());
+				Map<String, List<Integer>> byName = new HashMap<String, List<Integer>>();
+				for (Department department : rows){
+					departments.put(department.getId(), department);
+					List<Integer> hospitals = byName.get(department.getName());
+					if (hospitals == null){
+						hospitals = new ArrayList<Integer>();
+						byName.put(department.getName(), hospitals);
+					}//end if
+					if (!hospitals.contains(department.getHospitalId()))
+						hospitals.add(department.getHospitalId());
+				}//end for
+				Map<String, int[]> hospitalsByDepartment = new HashMap<String, int[]>();
+				for (Map.Entry<String, List<Integer>> entry : byName.entrySet())
+					hospitalsByDepartment.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+				this._departments = departments;
+				this._hospitalsByDepartment = hospitalsByDepartment;
+				break;
+			}
+			case "hospital":{
+				List<Hospital> rows = esql.executeQueryAndMap(ALL_HOSPITALS, Hospital.MAPPER);
+				IntMap<Hospital> hospitals = new IntMap<Hospital>(rows.size());
+				for (Hospital hospital : rows)
+					hospitals.put(hospital.getId(), hospital);
+				this._hospitals = hospitals;
+				break;
+			}
+			case "staff":{
+				List<Staff> rows = esql.executeQueryAndMap(ALL_STAFF, Staff.MAPPER);
+				IntMap<Staff> staff = new IntMap<Staff>(rows.size());
+				for (Staff member : rows)
+					staff.put(member.getId(), member);
+				this._staff = staff;
+				break;
+			}
+			default:
+				return;
+		}//end switch
+		++this._reloads;
+	}//end reload
+
+	/**
+	 * Method to load the tables and keep them up to date on a daemon thread
+	 * with a connection of its own.  Returns once the tables are loaded.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param props the connection properties
+	 * @throws java.sql.SQLException when the tables could not be loaded
+	 */
+	public synchronized void listen(String url, Properties props) throws SQLException {
+		if (this._pool != null)
+			return;
+		this._pool = new ConnectionPool(url, props, 1, 1, SessionServer.IDLE_TIMEOUT_MILLIS, SessionServer.BORROW_TIMEOUT_MILLIS);
+		final DBproject esql = new DBproject(this._pool, new BufferedReader(new StringReader("")), new PrintStream(OutputStream.nullOutputStream()));
+		final Connection conn;
+		try{
+			conn = subscribe(esql);
+		}catch (SQLException e){
+			this._pool.close();
+			this._pool = null;
+			throw e;
+		}//end try
+		this._listener = new Thread(() -> run(esql, conn), "reference-data");
+		this._listener.setDaemon(true);
+		this._listener.start();
+	}
+
+	/**
+	 * Method to stop the listener and close its connection.  The loaded
+	 * tables stay readable.
+	 */
+	public synchronized void close(){
+		this._closed = true;
+		if (this._listener != null){
+			this._listener.interrupt();
+			try{
+				this._listener.join(POLL_MILLIS * 2);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}//end try
+			this._listener = null;
+		}//end if
+		if (this._pool != null){
+			this._pool.close();
+			this._pool = null;
+		}//end if
+	}
+
+	/*
+	 * listens before loading, so no change is missed between both
+	 */
+	private Connection subscribe(DBproject esql) throws SQLException {
+		Connection conn = esql.pin();
+		esql.executeUpdate("LISTEN " + CHANNEL);
+		load(esql);
+		return conn;
+	}
+
+	/*
+	 * reloads the notified tables; a lost connection is replaced and all
+	 * tables reloaded, their notifications are lost with it
+	 */
+	private void run(DBproject esql, Connection conn){
+		while (!this._closed){
+			try{
+				if (conn == null)
+					conn = subscribe(esql);
+				PGNotification[] notifications = conn.unwrap(PGConnection.class).getNotifications(POLL_MILLIS);
+				if (notifications == null)
+					continue;
+				List<String> tables = new ArrayList<String>();
+				for (PGNotification notification : notifications){
+					if (!tables.contains(notification.getParameter()))
+						tables.add(notification.getParameter());
+				}//end for
+				for (String table : tables)
+					reload(esql, table);
+			}catch (SQLException e){
+				if (this._closed)
+					break;
+				System.err.println("Reference data listener failed, reconnecting: " + e.getMessage());
+				esql.unpin();
+				conn = null;
+				try{
+					Thread.sleep(RETRY_MILLIS);
+				}catch (InterruptedException e2){
+					break;
+				}//end try
+			}//end try
+		}//end while
+		esql.unpin();
+	}
+}//end ReferenceData
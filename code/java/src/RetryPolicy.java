@@ -0,0 +1,146 @@
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.postgresql.util.PSQLException;
+
+/**
+ * This class decides how the DBproject execution methods handle failing
+ * statements: every statement runs with a query timeout, and a statement
+ * that failed on a serialization failure (40001) or a deadlock (40P01), or
+ * on a connection error (08xxx) before it was sent, runs again after a
+ * random pause, up to maxAttempts times.  The pauses grow exponentially
+ * up to maxDelayMillis and are drawn between 0 and that bound ("full
+ * jitter"), so sessions that failed together do not retry together.
+ *
+ * A statement that lost its connection once sent is not run again: a
+ * write may have committed before the answer was lost, and running it
+ * again would apply it twice.
+ *
+ * Only statements running on their own (auto-commit) are retried: a
+ * failure inside a transaction has rolled back the statements before it,
+ * so it is up to the owner of the transaction to run it again.
+ *
+ */
+
+public class RetryPolicy{
+	public static final int DEFAULT_QUERY_TIMEOUT = 30;
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 50;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+	static final String SERIALIZATION_FAILURE = "40001";
+	static final String DEADLOCK_DETECTED = "40P01";
+	static final String QUERY_CANCELED = "57014";
+
+	private final int _queryTimeout;
+	private final int _maxAttempts;
+	private final long _baseDelayMillis;
+	private final long _maxDelayMillis;
+
+	/**
+	 * @param queryTimeout seconds a statement may run, 0 for no limit
+	 * @param maxAttempts executions of a statement at most, 1 for no retries
+	 * @param baseDelayMillis bound of the pause before the first retry
+	 * @param maxDelayMillis bound of the pauses
+	 */
+	public RetryPolicy(int queryTimeout, int maxAttempts, long baseDelayMillis, long maxDelayMillis){
+		this._queryTimeout = queryTimeout;
+		this._maxAttempts = Math.max(maxAttempts, 1);
+		this._baseDelayMillis = baseDelayMillis;
+		this._maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @return the policy set by the system properties db.queryTimeout
+	 * (seconds), db.retries (attempts), db.retryDelay and db.retryMaxDelay
+	 * (milliseconds), with the defaults for those not set
+	 */
+	public static RetryPolicy fromProperties(){
+		return new RetryPolicy(
+			Integer.getInteger("db.queryTimeout", DEFAULT_QUERY_TIMEOUT),
+			Integer.getInteger("db.retries", DEFAULT_MAX_ATTEMPTS),
+			Long.getLong("db.retryDelay", DEFAULT_BASE_DELAY_MILLIS),
+			Long.getLong("db.retryMaxDelay", DEFAULT_MAX_DELAY_MILLIS));
+	}
+
+	public int getQueryTimeout(){
+		return this._queryTimeout;
+	}
+
+	public int getMaxAttempts(){
+		return this._maxAttempts;
+	}
+
+	/**
+	 * Method to check whether a failure is worth another attempt.
+	 *
+	 * @param e the failure
+	 * @param attempt the number of the attempt that failed, starting at 1
+	 * @param sent whether the statement reached the connection, it may
+	 * have run then
+	 * @return true if the statement should run again
+	 */
+	public boolean shouldRetry(SQLException e, int attempt, boolean sent){
+		// a conflict rolled the statement back, whatever it wrote
+		return attempt < this._maxAttempts && (isConflict(e) || (!sent && isConnectionError(e)));
+	}
+
+	/**
+	 * @return true for a serialization failure or a deadlock, which the
+	 * same statement or transaction succeeds on later
+	 */
+	public boolean isConflict(SQLException e){
+		String state = e.getSQLState();
+		return SERIALIZATION_FAILURE.equals(state) || DEADLOCK_DETECTED.equals(state);
+	}
+
+	/**
+	 * @return true for the connection exception class, the connection is
+	 * unusable afterwards
+	 */
+	public boolean isConnectionError(SQLException e){
+		String state = e.getSQLState();
+		return state != null && state.startsWith("08");
+	}
+
+	/**
+	 * @return true for an error reported by the database server, as
+	 * opposed to one of the driver or the pool
+	 */
+	public boolean isServerError(SQLException e){
+		return e instanceof PSQLException && ((PSQLException) e).getServerErrorMessage() != null;
+	}
+
+	/**
+	 * @return true for a statement cancelled by its query timeout
+	 */
+	public boolean isTimeout(SQLException e){
+		return QUERY_CANCELED.equals(e.getSQLState());
+	}
+
+	/**
+	 * @return the pause before the next attempt, random below the bound of
+	 * the attempt that failed
+	 */
+	public long delayMillis(int attempt){
+		long bound = this._baseDelayMillis << Math.min(attempt - 1, 20);
+		bound = Math.min(bound, this._maxDelayMillis);
+		return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+
+	/**
+	 * Method to wait before the next attempt.
+	 *
+	 * @param attempt the number of the attempt that failed
+	 * @return false if the thread was interrupted, it should give up then
+	 */
+	public boolean pause(int attempt){
+		try{
+			Thread.sleep(delayMillis(attempt));
+			return true;
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			return false;
+		}//end try
+	}
+}//end RetryPolicy
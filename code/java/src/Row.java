@@ -0,0 +1,92 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class gives typed access to the current row of a streamed query.
+ * One instance is reused for all rows of a result, so a handler must copy
+ * the values it wants to keep instead of keeping the row itself.
+ *
+ */
+
+public class Row{
+	private final ResultSet _rs;
+	private final String[] _columnNames;
+	//approximate size of the values read so far, see getBytesRead
+	private long _bytesRead = 0;
+
+	Row(ResultSet rs) throws SQLException {
+		this._rs = rs;
+		// the metadata is read once per result, not once per row
+		ResultSetMetaData rsmd = rs.getMetaData ();
+		this._columnNames = new String[rsmd.getColumnCount ()];
+		for (int i = 0; i < this._columnNames.length; ++i)
+			this._columnNames[i] = rsmd.getColumnName (i + 1);
+	}
+
+	public int getColumnCount(){
+		return this._columnNames.length;
+	}
+
+	/**
+	 * @param column the column index, starting at 1
+	 * @return the column name
+	 */
+	public String getColumnName(int column){
+		return this._columnNames[column - 1];
+	}
+
+	public String getString(int column) throws SQLException {
+		String value = this._rs.getString (column);
+		if (value != null)
+			this._bytesRead += value.length ();
+		return value;
+	}
+
+	/**
+	 * @return the column value, 0 for SQL NULL (see isNull)
+	 */
+	public int getInt(int column) throws SQLException {
+		this._bytesRead += 4;
+		return this._rs.getInt (column);
+	}
+
+	/**
+	 * @return the column value, 0 for SQL NULL (see isNull)
+	 */
+	public long getLong(int column) throws SQLException {
+		this._bytesRead += 8;
+		return this._rs.getLong (column);
+	}
+
+	/**
+	 * @return the column value, null for SQL NULL
+	 */
+	public LocalDate getLocalDate(int column) throws SQLException {
+		this._bytesRead += 4;
+		return this._rs.getObject (column, LocalDate.class);
+	}
+
+	/*
+	 * characters of the strings plus the storage size of the numbers and
+	 * dates read through this row, for the query metrics
+	 */
+	long getBytesRead(){
+		return this._bytesRead;
+	}
+
+	/**
+	 * @return true if the column value last read with a getter was SQL NULL
+	 */
+	public boolean wasNull() throws SQLException {
+		return this._rs.wasNull ();
+	}
+
+	/**
+	 * @return true if the column value is SQL NULL
+	 */
+	public boolean isNull(int column) throws SQLException {
+		return this._rs.getObject (column) == null;
+	}
+}//end Row
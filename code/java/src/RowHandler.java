@@ -0,0 +1,16 @@
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a streamed query one at a time.
+ *
+ */
+
+public interface RowHandler{
+	/**
+	 * Method called for every row of the result, in order.
+	 *
+	 * @param row the current row, only valid during this call
+	 * @throws java.sql.SQLException to abort the query
+	 */
+	void handle(Row row) throws SQLException;
+}//end RowHandler
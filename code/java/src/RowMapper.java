@@ -0,0 +1,47 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * This interface turns the current row of a result set into an object.
+ * A mapper is compiled by its Factory from the result metadata, which
+ * resolves the column names to indexes once, so mapping a row only reads
+ * the values by index with their typed getters.  DBproject keeps the
+ * compiled mapper of a cached statement for its next executions.
+ *
+ */
+
+public interface RowMapper<T>{
+	/**
+	 * Method called for every row of the result.
+	 *
+	 * @param rs the result set, positioned on the row
+	 * @return the object of the row
+	 * @throws java.sql.SQLException when a value could not be read
+	 */
+	T map(ResultSet rs) throws SQLException;
+
+	/**
+	 * This interface compiles a RowMapper for the columns of a result.
+	 */
+	interface Factory<T>{
+		RowMapper<T> create(ResultSetMetaData rsmd) throws SQLException;
+	}
+
+	//the first column as an int, e.g. a count or an ID
+	Factory<Integer> FIRST_INT = rsmd -> rs -> rs.getInt(1);
+
+	/**
+	 * Method to find a column by name, ignoring case like SQL does.
+	 *
+	 * @return the column index, starting at 1
+	 * @throws java.sql.SQLException when the result has no such column
+	 */
+	static int column(ResultSetMetaData rsmd, String name) throws SQLException {
+		for (int i = 1; i <= rsmd.getColumnCount(); ++i){
+			if (rsmd.getColumnName(i).equalsIgnoreCase(name))
+				return i;
+		}//end for
+		throw new SQLException("The result has no column " + name);
+	}
+}//end RowMapper
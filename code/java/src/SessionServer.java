@@ -0,0 +1,145 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the main menu to several clients at once.  Every
+ * accepted socket becomes its own session (a DBproject with the socket as
+ * input and output), and all sessions share one connection pool, so a
+ * session only holds a physical connection while a statement runs.
+ *
+ */
+
+public class SessionServer{
+	public static final int DEFAULT_MIN_POOL_SIZE = 2;
+	public static final int DEFAULT_MAX_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+	//surplus connections idle for longer than this are closed
+	static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+	//time a statement waits for a free connection before it fails
+	static final long BORROW_TIMEOUT_MILLIS = 30 * 1000;
+	//sessions served at the same time, further clients wait in the listen
+	//backlog until a session ends
+	static final int MAX_SESSIONS = 256;
+
+	private final ConnectionPool _pool;
+	private final ExecutorService _sessions;
+	//free session slots, taken before a client is accepted
+	private final Semaphore _slots;
+	private ServerSocket _socket = null;
+
+	public SessionServer(ConnectionPool pool, int maxSessions){
+		this._pool = pool;
+		this._sessions = Executors.newFixedThreadPool(maxSessions);
+		this._slots = new Semaphore(maxSessions);
+	}
+
+	/**
+	 * Method to accept clients on the given port until the server is closed.
+	 *
+	 * @param port the TCP port to listen on
+	 * @throws java.io.IOException when the port cannot be opened
+	 */
+	public void listen(int port) throws IOException {
+		this._socket = new ServerSocket(port);
+		System.out.println("Accepting sessions on port " + port);
+		while (!this._socket.isClosed()){
+			// no accept while all sessions are taken
+			try{
+				this._slots.acquire();
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			}//end try
+			final Socket client;
+			try{
+				client = this._socket.accept();
+			}catch (IOException e){
+				this._slots.release();
+				if (this._socket.isClosed())
+					break;
+				System.err.println(e.getMessage());
+				continue;
+			}//end try
+			this._sessions.execute(() -> {
+				try{
+					run(client);
+				}finally{
+					this._slots.release();
+				}//end try
+			});
+		}//end while
+	}//end listen
+
+	/**
+	 * Method to run one session over the given streams in the calling
+	 * thread, e.g. from a test thread instead of a socket.
+	 *
+	 * @param in the session input
+	 * @param out the session output
+	 */
+	public void run(BufferedReader in, PrintStream out){
+		DBproject esql = new DBproject(this._pool, in, out);
+		try{
+			DBproject.menu(esql);
+		}finally{
+			esql.cleanup();
+		}//end try
+	}
+
+	/**
+	 * Method to stop accepting clients, wait for running sessions and
+	 * close the pool.
+	 */
+	public void close(){
+		try{
+			if (this._socket != null)
+				this._socket.close();
+		}catch (IOException e){
+			// ignored.
+		}//end try
+		this._sessions.shutdown();
+		try{
+			this._sessions.awaitTermination(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+		this._pool.close();
+	}//end close
+
+	private void run(Socket client){
+		try{
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+			PrintStream out = new PrintStream(client.getOutputStream(), true);
+			run(in, out);
+		}catch (IOException e){
+			System.err.println(e.getMessage());
+		}finally{
+			try{
+				client.close();
+			}catch (IOException e){
+				// ignored.
+			}//end try
+		}//end try
+	}
+
+	/**
+	 * Method to open the pool and serve sessions until the process ends.
+	 */
+	public static void serve(String dbname, String dbport, String user, String passwd, int listenPort, int minPoolSize, int maxPoolSize) throws SQLException, IOException {
+		String url = DBproject.connectionUrl(dbname, dbport);
+		System.out.println ("Connection URL: " + url + ", pool size " + minPoolSize + ".." + maxPoolSize + "\n");
+		ConnectionPool pool = new ConnectionPool(url, DBproject.connectionProperties(user, passwd),
+				minPoolSize, maxPoolSize, IDLE_TIMEOUT_MILLIS, BORROW_TIMEOUT_MILLIS);
+		SessionServer server = new SessionServer(pool, MAX_SESSIONS);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		server.listen(listenPort);
+	}
+}//end SessionServer
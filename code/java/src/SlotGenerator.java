@@ -0,0 +1,135 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class opens the calendar of one or more doctors: it creates an
+ * available appointment for every doctor, day and time slot of a date range,
+ * linked to the doctor through has_appointment.
+ *
+ * The generated rows are sent with JDBC batches (rewritten by the driver
+ * into multi-row inserts) into a temporary staging table, and then moved
+ * into Appointment and has_appointment by one set based statement.  Slots
+ * the doctor already has on that day and time are skipped by an anti join
+ * there, and ON CONFLICT DO NOTHING guards the keys, so there is no SELECT
+ * per slot.  Appointment has no natural key of its own (the doctor is only
+ * known through has_appointment), which is why duplicates are resolved in
+ * the staging step rather than by a conflict on Appointment itself.
+ *
+ */
+
+public class SlotGenerator{
+	//rows per executeBatch
+	static final int BATCH_SIZE = 1000;
+
+	static final String CREATE_STAGE = "create temp table if not exists slot_stage (appnt_ID integer, adate date, time_slot varchar(11), doctor_id integer) on commit delete rows";
+	static final String STAGE_SLOT = "insert into slot_stage values (?, ?, ?, ?)";
+	static final String MOVE_STAGED_SLOTS =
+		"with fresh as (" +
+		" select distinct on (s.doctor_id, s.adate, s.time_slot) s.* from slot_stage s" +
+		" where not exists (select 1 from Appointment a, has_appointment h" +
+		"  where h.appt_id = a.appnt_ID and h.doctor_id = s.doctor_id and a.adate = s.adate and a.time_slot = s.time_slot)" +
+		" order by s.doctor_id, s.adate, s.time_slot, s.appnt_ID" +
+		"), slots as (" +
+		" insert into Appointment (appnt_ID, adate, time_slot, status)" +
+		" select appnt_ID, adate, time_slot, 'AV' from fresh" +
+		" on conflict do nothing returning appnt_ID" +
+		")" +
+		" insert into has_appointment (appt_id, doctor_id, adate)" +
+		" select f.appnt_ID, f.doctor_id, f.adate from fresh f, slots where slots.appnt_ID = f.appnt_ID" +
+		" on conflict do nothing";
+	static final String DOCTORS_OF_DEPARTMENT = "Select doctor_ID from Doctor where did = ? order by doctor_ID";
+
+	/**
+	 * Method to create the slots of the given doctors in one transaction.
+	 *
+	 * @param esql the session, pinned for the duration of the call
+	 * @param doctorIds the doctors whose calendars are opened
+	 * @param from the first day, inclusive
+	 * @param to the last day, inclusive
+	 * @param timeSlots the time slots of each day, e.g. "8:00-10:00"
+	 * @return the number of slots created, not counting existing ones
+	 * @throws java.sql.SQLException when the slots could not be created, nothing is written then
+	 */
+	public static int generate(DBproject esql, List<Integer> doctorIds, LocalDate from, LocalDate to, List<String> timeSlots) throws SQLException {
+		Connection conn = esql.pin();
+		try{
+			conn.setAutoCommit(false);
+			try (Statement create = conn.createStatement()){
+				create.execute(CREATE_STAGE);
+			}
+			int created;
+			try (PreparedStatement stage = conn.prepareStatement(STAGE_SLOT)){
+				int batched = 0;
+				for (int doctorId : doctorIds){
+					for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)){
+						for (String timeSlot : timeSlots){
+							stage.setInt(1, esql.appointmentIds.next(esql));
+							stage.setObject(2, day);
+							stage.setString(3, timeSlot);
+							stage.setInt(4, doctorId);
+							stage.addBatch();
+							if (++batched == BATCH_SIZE){
+								stage.executeBatch();
+								batched = 0;
+							}//end if
+						}//end for
+					}//end for
+				}//end for
+				if (batched > 0)
+					stage.executeBatch();
+			}
+			try (PreparedStatement move = conn.prepareStatement(MOVE_STAGED_SLOTS)){
+				created = move.executeUpdate();
+			}
+			conn.commit();
+			return created;
+		}catch (SQLException e){
+			DBproject.rollback(conn, e);
+			throw e;
+		}finally{
+			esql.endTransaction(conn);
+		}//end try
+	}//end generate
+
+	/**
+	 * @return the IDs of the doctors of a department
+	 */
+	public static List<Integer> doctorsOfDepartment(DBproject esql, int did) throws SQLException {
+		return esql.executeQueryAndMap(DOCTORS_OF_DEPARTMENT, RowMapper.FIRST_INT, did);
+	}
+
+	/**
+	 * Opens the calendar of a doctor or of all doctors of a department.
+	 *
+	 * @param args <dbname> <port> <user> -doctor|-department <id> <from> <to> <slot>[,<slot>...]
+	 * with dates as YYYY-MM-DD
+	 */
+	public static void main(String[] args){
+		if (args.length != 8 || !(args[3].equals("-doctor") || args[3].equals("-department"))){
+			System.err.println("Usage: java [-classpath <classpath>] " + SlotGenerator.class.getName() +
+					" <dbname> <port> <user> -doctor|-department <id> <from YYYY-MM-DD> <to YYYY-MM-DD> <slot>[,<slot>...]");
+			return;
+		}//end if
+		DBproject esql = null;
+		try{
+			esql = new DBproject(args[0], args[1], args[2], "");
+			// one insert per doctor and date range, longer than the menu queries
+			esql.setQueryTimeout(0);
+			int id = Integer.parseInt(args[4]);
+			List<Integer> doctorIds = args[3].equals("-doctor") ? Arrays.asList(id) : doctorsOfDepartment(esql, id);
+			long start = System.nanoTime();
+			int created = generate(esql, doctorIds, LocalDate.parse(args[5]), LocalDate.parse(args[6]), Arrays.asList(args[7].split(",")));
+			System.out.println(String.format("Created %d appointments for %d doctor(s) in %.1f s", created, doctorIds.size(), (System.nanoTime() - start) / 1e9));
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null)
+				esql.cleanup();
+		}//end try
+	}
+}//end SlotGenerator
@@ -0,0 +1,201 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * This class finds the earliest available appointments of a date range in
+ * the hospitals having any of the given departments, e.g. the next ten
+ * Cardiology slots of the coming 30 days at any hospital.  Results come in
+ * pages: the next page starts after the last slot of the previous one
+ * (keyset pagination), so every page costs the same whatever its depth.
+ *
+ * The slots are read in the order of the index appt_available_slot, which
+ * holds the available appointments only and all the columns returned, and
+ * each one is checked against searches_aid; both are index only scans
+ * once the tables are vacuumed.  Time slots are ordered by their start
+ * time, padded with zeros like the index ("8:00-10:00" before
+ * "10:00-12:00"); appointments without a time slot are not found.
+ *
+ * Department names are resolved to hospitals from ReferenceData when it is
+ * loaded, otherwise from the database.
+ *
+ */
+
+public class SlotSearch{
+	public static final int DEFAULT_LIMIT = 10;
+	public static final int DEFAULT_DAYS = 30;
+
+	// the order of appt_available_slot, and the lateral lookup of searches_aid
+	static final String SEARCH =
+		"select a.appnt_ID, a.adate, a.time_slot, s.hid from Appointment a" +
+		" cross join lateral (select hid from searches where aid = a.appnt_ID and adate = a.adate and hid = any(?) order by hid limit 1) s" +
+		" where a.status = 'AV' and a.adate <= cast(? as date)" +
+		" and (a.adate, lpad(a.time_slot, 11, '0'), a.appnt_ID) > (cast(? as date), lpad(?, 11, '0'), ?)" +
+		" order by a.adate, lpad(a.time_slot, 11, '0'), a.appnt_ID limit ?";
+	// in any hospital
+	static final String SEARCH_ANY =
+		"select a.appnt_ID, a.adate, a.time_slot, s.hid from Appointment a" +
+		" cross join lateral (select hid from searches where aid = a.appnt_ID and adate = a.adate order by hid limit 1) s" +
+		" where a.status = 'AV' and a.adate <= cast(? as date)" +
+		" and (a.adate, lpad(a.time_slot, 11, '0'), a.appnt_ID) > (cast(? as date), lpad(?, 11, '0'), ?)" +
+		" order by a.adate, lpad(a.time_slot, 11, '0'), a.appnt_ID limit ?";
+	static final String HOSPITALS_OF_DEPARTMENTS = "select distinct hid from Department where name = any(?)";
+
+	/**
+	 * This class holds one slot found, and the position of the next page.
+	 */
+	public static class Slot{
+		static final RowMapper.Factory<Slot> MAPPER = rsmd -> rs -> new Slot(rs.getInt(1), rs.getObject(2, LocalDate.class), rs.getString(3), rs.getInt(4));
+
+		private final int _appointmentId;
+		private final LocalDate _date;
+		private final String _timeSlot;
+		private final int _hospitalId;
+
+		public Slot(int appointmentId, LocalDate date, String timeSlot, int hospitalId){
+			this._appointmentId = appointmentId;
+			this._date = date;
+			this._timeSlot = timeSlot;
+			this._hospitalId = hospitalId;
+		}
+
+		public int getAppointmentId(){
+			return this._appointmentId;
+		}
+
+		public LocalDate getDate(){
+			return this._date;
+		}
+
+		public String getTimeSlot(){
+			return this._timeSlot;
+		}
+
+		/**
+		 * @return the lowest ID of the hospitals searched in, among those asked for
+		 */
+		public int getHospitalId(){
+			return this._hospitalId;
+		}
+
+		public String toString(){
+			return "Appointment " + this._appointmentId + " " + this._date + " " + this._timeSlot + " at hospital " + this._hospitalId;
+		}
+	}//end Slot
+
+	private final String[] _departments;
+	private final int[] _hospitals;
+	private final LocalDate _from;
+	private final LocalDate _to;
+
+	/**
+	 * @param departments the department names, null for any department
+	 * @param hospitals the hospital IDs, null for any hospital
+	 * @param from the first date
+	 * @param to the last date, included
+	 */
+	public SlotSearch(List<String> departments, int[] hospitals, LocalDate from, LocalDate to){
+		this._departments = departments == null ? null : departments.toArray(new String[0]);
+		this._hospitals = hospitals;
+		this._from = from;
+		this._to = to;
+	}
+
+	/**
+	 * Method to find the first page of slots.
+	 *
+	 * @param esql the session
+	 * @param limit the page size
+	 * @return the slots, earliest first
+	 * @throws java.sql.SQLException when the search failed
+	 */
+	public List<Slot> first(DBproject esql, int limit) throws SQLException {
+		// before any time slot of the first date
+		return page(esql, this._from, "", Integer.MIN_VALUE, limit);
+	}
+
+	/**
+	 * Method to find the page of slots following a slot.
+	 *
+	 * @param esql the session
+	 * @param last the last slot of the previous page
+	 * @param limit the page size
+	 * @return the slots after it, earliest first, empty after the last page
+	 * @throws java.sql.SQLException when the search failed
+	 */
+	public List<Slot> next(DBproject esql, Slot last, int limit) throws SQLException {
+		return page(esql, last.getDate(), last.getTimeSlot(), last.getAppointmentId(), limit);
+	}
+
+	private List<Slot> page(DBproject esql, LocalDate date, String timeSlot, int appID, int limit) throws SQLException {
+		int[] hospitals = hospitals(esql);
+		if (hospitals == null)
+			return esql.executeQueryAndMap(SEARCH_ANY, Slot.MAPPER, this._to.toString(), date.toString(), timeSlot, appID, limit);
+		if (hospitals.length == 0)
+			return new ArrayList<Slot>();
+		return esql.executeQueryAndMap(SEARCH, Slot.MAPPER, hospitals, this._to.toString(), date.toString(), timeSlot, appID, limit);
+	}
+
+	/*
+	 * the hospitals having one of the departments and asked for, null for
+	 * any hospital
+	 */
+	private int[] hospitals(DBproject esql) throws SQLException {
+		if (this._departments == null)
+			return this._hospitals;
+		int[] found = new int[0];
+		for (String name : this._departments){
+			int[] hospitals = DBproject.reference.hospitalsOfDepartment(name);
+			// a miss may not be loaded yet
+			if (hospitals == null){
+				found = esql.executeQueryAndMap(HOSPITALS_OF_DEPARTMENTS, RowMapper.FIRST_INT, (Object) this._departments)
+						.stream().mapToInt(Integer::intValue).toArray();
+				break;
+			}//end if
+			found = union(found, hospitals);
+		}//end for
+		if (this._hospitals == null)
+			return found;
+		return Arrays.stream(found).filter(hid -> Arrays.stream(this._hospitals).anyMatch(h -> h == hid)).toArray();
+	}
+
+	private static int[] union(int[] a, int[] b){
+		return IntStream.concat(Arrays.stream(a), Arrays.stream(b)).distinct().toArray();
+	}
+
+	/**
+	 * Prints the earliest available slots of the coming days.
+	 *
+	 * @param args <dbname> <port> <user> <days> <limit> [<department> ...]
+	 */
+	public static void main(String[] args){
+		if (args.length < 5){
+			System.err.println("Usage: java [-classpath <classpath>] " + SlotSearch.class.getName() +
+					" <dbname> <port> <user> <days> <limit> [<department> ...]");
+			return;
+		}//end if
+		DBproject esql = null;
+		int status = 0;
+		try{
+			esql = new DBproject(args[0], args[1], args[2], "");
+			List<String> departments = args.length == 5 ? null : Arrays.asList(args).subList(5, args.length);
+			LocalDate today = LocalDate.now();
+			SlotSearch search = new SlotSearch(departments, null, today, today.plusDays(Integer.parseInt(args[3])));
+			List<Slot> slots = search.first(esql, Integer.parseInt(args[4]));
+			for (Slot slot : slots)
+				System.out.println(slot);
+			if (slots.isEmpty())
+				System.out.println("No available appointment found");
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			status = 1;
+		}finally{
+			if (esql != null)
+				esql.cleanup();
+		}//end try
+		System.exit(status);
+	}
+}//end SlotSearch
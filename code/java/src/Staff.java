@@ -0,0 +1,39 @@
+/**
+ * This class holds a row of the Staff table.
+ *
+ */
+
+public class Staff{
+	public static final RowMapper.Factory<Staff> MAPPER = rsmd -> {
+		final int id = RowMapper.column(rsmd, "staff_ID");
+		final int name = RowMapper.column(rsmd, "name");
+		final int hid = RowMapper.column(rsmd, "hid");
+		return rs -> new Staff(rs.getInt(id), rs.getString(name), rs.getInt(hid));
+	};
+
+	private final int _id;
+	private final String _name;
+	private final int _hospitalId;
+
+	public Staff(int id, String name, int hospitalId){
+		this._id = id;
+		this._name = name;
+		this._hospitalId = hospitalId;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	public int getHospitalId(){
+		return this._hospitalId;
+	}
+
+	public String toString(){
+		return "Staff " + this._id + " " + this._name;
+	}
+}//end Staff
@@ -0,0 +1,101 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least recently used set of prepared statements
+ * for a single physical connection.  Statements are keyed by their SQL text,
+ * so callers must use placeholders ('?') instead of concatenating values.
+ *
+ */
+
+public class StatementCache{
+	//default number of statements kept open per connection
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final Connection _connection;
+	private final int _capacity;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	public StatementCache(Connection connection, int capacity){
+		this._connection = connection;
+		this._capacity = capacity;
+		// access ordered, so the eldest entry is the least recently used one
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to obtain a prepared statement for the given SQL text. The
+	 * statement is reused if it is still cached, otherwise it is prepared
+	 * and the least recently used statement is closed when the cache is full.
+	 *
+	 * @param sql the input SQL string with '?' placeholders
+	 * @return an open prepared statement owned by the cache (do not close it)
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()){
+			++this._hits;
+			return stmt;
+		}//end if
+		++this._misses;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+
+		//evicts least recently used statements beyond the capacity
+		Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+		while (this._statements.size() > this._capacity && it.hasNext()){
+			Map.Entry<String, PreparedStatement> eldest = it.next();
+			it.remove();
+			closeQuietly(eldest.getValue());
+		}//end while
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to drop a statement from the cache, e.g. after it failed in a
+	 * way that leaves it unusable.
+	 *
+	 * @param sql the SQL string the statement was prepared for
+	 */
+	public synchronized void evict(String sql){
+		closeQuietly(this._statements.remove(sql));
+	}//end evict
+
+	public synchronized long getHits(){
+		return this._hits;
+	}
+
+	public synchronized long getMisses(){
+		return this._misses;
+	}
+
+	public synchronized int size(){
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close all cached statements. The connection stays open.
+	 */
+	public synchronized void clear(){
+		for (PreparedStatement stmt : this._statements.values())
+			closeQuietly(stmt);
+		this._statements.clear();
+	}//end clear
+
+	private static void closeQuietly(PreparedStatement stmt){
+		try{
+			if (stmt != null){
+				stmt.close();
+			}//end if
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}//end StatementCache
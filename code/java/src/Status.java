@@ -0,0 +1,30 @@
+/**
+ * This enum lists the values of the _STATUS domain of an appointment.
+ *
+ */
+
+public enum Status{
+	PA("Past"),
+	AC("Active"),
+	AV("Available"),
+	WL("Waitlisted");
+
+	private final String _description;
+
+	Status(String description){
+		this._description = description;
+	}
+
+	public String getDescription(){
+		return this._description;
+	}
+
+	/**
+	 * @param code the status as stored, e.g. "AV"
+	 * @return the status, null for null
+	 * @throws java.lang.IllegalArgumentException for any other value
+	 */
+	public static Status of(String code){
+		return code == null ? null : valueOf(code.trim());
+	}
+}//end Status
@@ -0,0 +1,137 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class checks and rebuilds doctor_status_count, the number of
+ * appointments per doctor and status read by the reports 7 and 8.  The
+ * triggers of create.sql keep the counters up to date on every change, so
+ * a rebuild is only needed after writes that bypass them (e.g. with
+ * triggers disabled, or TRUNCATE of has_appointment alone).  A periodic
+ * rebuild can be scheduled as a safety net.
+ *
+ */
+
+public class StatusCounters{
+	static final String AGGREGATE =
+		"select h.doctor_id, a.status, count(*) as num from has_appointment h, Appointment a" +
+		" where h.appt_id = a.appnt_ID and a.status is not null group by h.doctor_id, a.status";
+	// one statement, so both sides are read from the same snapshot
+	static final String DIFFERENCES =
+		"select coalesce(c.doctor_id, f.doctor_id), coalesce(c.status, f.status), coalesce(c.num, 0), coalesce(f.num, 0)" +
+		" from (select doctor_id, status, num from doctor_status_count where num <> 0) c" +
+		" full join (" + AGGREGATE + ") f on c.doctor_id = f.doctor_id and c.status = f.status" +
+		" where c.num is distinct from f.num order by 1, 2";
+	// waits for the transactions writing counters and holds off new ones until the rebuild commits
+	static final String LOCK = "lock table doctor_status_count in exclusive mode";
+	static final String CLEAR = "delete from doctor_status_count";
+	static final String REBUILD = "insert into doctor_status_count " + AGGREGATE;
+
+	/**
+	 * Method to compare the counters with the full aggregate.
+	 *
+	 * @param esql the session to run the query on
+	 * @return the differences as doctor ID, status, counter and actual count, empty if consistent
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static List<List<String>> check(DBproject esql) throws SQLException {
+		return esql.executeQueryAndReturnResult(DIFFERENCES, DBproject.NO_PARAMS);
+	}
+
+	/**
+	 * Method to rebuild the counters from the full aggregate in one
+	 * transaction.
+	 *
+	 * @param esql the session, pinned for the duration of the call
+	 * @return the number of counters written
+	 * @throws java.sql.SQLException when the rebuild failed, the counters are unchanged then
+	 */
+	public static int refresh(DBproject esql) throws SQLException {
+		Connection conn = esql.pin();
+		try{
+			conn.setAutoCommit(false);
+			esql.executeUpdate(LOCK, DBproject.NO_PARAMS);
+			esql.executeUpdate(CLEAR, DBproject.NO_PARAMS);
+			int counters = esql.executeUpdate(REBUILD, DBproject.NO_PARAMS);
+			conn.commit();
+			return counters;
+		}catch (SQLException e){
+			DBproject.rollback(conn, e);
+			throw e;
+		}finally{
+			esql.endTransaction(conn);
+		}//end try
+	}//end refresh
+
+	/**
+	 * Method to rebuild the counters every periodMillis on a daemon thread.
+	 *
+	 * @param esql the session used by the rebuilds, not to be used by others meanwhile
+	 * @param periodMillis the time between two rebuilds
+	 * @return the scheduler, shut it down to stop
+	 */
+	public static ScheduledExecutorService schedule(final DBproject esql, long periodMillis){
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "status-counters");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try{
+				refresh(esql);
+			}catch (SQLException e){
+				System.err.println("Unable to refresh the status counters: " + e.getMessage());
+			}//end try
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+		return scheduler;
+	}
+
+	/**
+	 * Checks the counters (exit status 1 if they differ), rebuilds them
+	 * once, or keeps rebuilding them every given number of seconds.
+	 *
+	 * @param args <dbname> <port> <user> -check|-refresh|-refresh-every <seconds>
+	 */
+	public static void main(String[] args){
+		boolean every = args.length == 5 && args[3].equals("-refresh-every");
+		if (!every && !(args.length == 4 && (args[3].equals("-check") || args[3].equals("-refresh")))){
+			System.err.println("Usage: java [-classpath <classpath>] " + StatusCounters.class.getName() +
+					" <dbname> <port> <user> -check|-refresh|-refresh-every <seconds>");
+			return;
+		}//end if
+		DBproject esql = null;
+		int status = 0;
+		try{
+			esql = new DBproject(args[0], args[1], args[2], "");
+			// the rebuild reads all links, longer than the menu queries
+			esql.setQueryTimeout(0);
+			if (args[3].equals("-check")){
+				List<List<String>> differences = check(esql);
+				for (List<String> record : differences)
+					System.out.println("doctor " + record.get(0) + " status " + record.get(1) + ": counted " + record.get(2) + ", actual " + record.get(3));
+				System.out.println(differences.isEmpty() ? "Counters are consistent" : differences.size() + " counter(s) differ");
+				status = differences.isEmpty() ? 0 : 1;
+			}else if (every){
+				long periodMillis = Long.parseLong(args[4]) * 1000;
+				while (true){
+					long start = System.nanoTime();
+					int counters = refresh(esql);
+					System.out.println(String.format("Rebuilt %d counters in %.1f s", counters, (System.nanoTime() - start) / 1e9));
+					Thread.sleep(periodMillis);
+				}//end while
+			}else{
+				System.out.println("Rebuilt " + refresh(esql) + " counters");
+			}//end if
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			status = 1;
+		}finally{
+			if (esql != null)
+				esql.cleanup();
+		}//end try
+		System.exit(status);
+	}
+}//end StatusCounters
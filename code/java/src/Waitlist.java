@@ -0,0 +1,212 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class serves the waitlists of booking_queue.  Cancelling the booking
+ * of the patient holding an appointment hands it to the head of its
+ * waitlist in the same transaction; without waiters the appointment is
+ * available again.
+ *
+ * Every change of a waitlist locks its slot first, so a cancellation
+ * waits for a priority change rather than passing over its waiter.  The
+ * head is taken with FOR UPDATE SKIP LOCKED, and drain finds the available
+ * appointments that still have waiters (e.g. freed by hand) the same way,
+ * so any number of drain workers run side by side without waiting for
+ * each other.
+ *
+ */
+
+public class Waitlist{
+	public static final int DEFAULT_DRAIN_LIMIT = 100;
+
+	// the slot first, like the bookings, so cancellations queue on the same lock
+	static final String LOCK_SLOT = "select adate from Appointment where appnt_ID = ? for update";
+	static final String DEQUEUE = "delete from booking_queue where appt_id = ? and patient_id = ? returning status";
+	static final String UNCOUNT = "update Patient set number_of_appts = number_of_appts - 1 where patient_ID = ? and number_of_appts > 0";
+	static final String PROMOTE =
+		"with head as (" +
+		" select appt_id, patient_id from booking_queue where appt_id = ? and status = 'WL'" +
+		" order by priority desc, ticket limit 1 for update skip locked" +
+		")" +
+		" update booking_queue q set status = 'AC' from head" +
+		" where q.appt_id = head.appt_id and q.patient_id = head.patient_id returning q.patient_id";
+	static final String HOLD =
+		"update Appointment set status = case when exists (select 1 from booking_queue where appt_id = ? and status = 'WL')" +
+		" then 'WL' else 'AC' end where appnt_ID = ? returning status";
+	static final String RELEASE = "update Appointment set status = 'AV' where appnt_ID = ? returning status";
+	static final String FREED =
+		"select appnt_ID from Appointment where status = 'AV'" +
+		" and appnt_ID in (select appt_id from booking_queue where status = 'WL') limit ? for update skip locked";
+	static final String QUEUE = "select patient_id, status, priority, ticket, requested from booking_queue where appt_id = ? order by status, priority desc, ticket";
+	static final String SET_PRIORITY = "update booking_queue set priority = ? where appt_id = ? and patient_id = ? and status = 'WL'";
+
+	static final RowMapper.Factory<LocalDate> FIRST_DATE = rsmd -> rs -> rs.getObject(1, LocalDate.class);
+	static final RowMapper.Factory<Status> FIRST_STATUS = rsmd -> rs -> Status.of(rs.getString(1));
+
+	/*
+	 * statements run in one transaction
+	 */
+	private interface Work<T>{
+		T run() throws SQLException;
+	}
+
+	/**
+	 * Method to cancel a patient's booking of an appointment.  If the
+	 * patient held it, the next waiter is promoted.
+	 *
+	 * @param esql the session, in a transaction of the caller or pinned for its own
+	 * @param appID the appointment ID
+	 * @param pid the patient ID
+	 * @return the outcome of the cancellation
+	 * @throws java.sql.SQLException when a statement failed, nothing is changed then
+	 */
+	public static CancelResult cancel(DBproject esql, int appID, int pid) throws SQLException {
+		return inTransaction(esql, () -> {
+			LocalDate date = esql.executeQueryAndMapFirst(LOCK_SLOT, FIRST_DATE, appID);
+			Status removed = date == null ? null : esql.executeQueryAndMapFirst(DEQUEUE, FIRST_STATUS, appID, pid);
+			if (removed == null)
+				return new CancelResult(CancelResult.Outcome.NOT_FOUND, appID, pid, date, null, -1);
+			esql.executeUpdate(UNCOUNT, pid);
+			// a waiter leaves the holder in place
+			int promoted = removed == Status.AC ? promote(esql, appID) : -1;
+			Status status = settle(esql, appID, removed == Status.WL || promoted >= 0);
+			return new CancelResult(CancelResult.Outcome.CANCELLED, appID, pid, date, status, promoted);
+		});
+	}
+
+	/**
+	 * Method to promote the head of the waitlist of available appointments
+	 * that still have waiters.
+	 *
+	 * @param esql the session, in a transaction of the caller or pinned for its own
+	 * @param limit the number of appointments to look at
+	 * @return the IDs of the appointments promoted
+	 * @throws java.sql.SQLException when a statement failed, nothing is changed then
+	 */
+	public static List<Integer> drain(DBproject esql, int limit) throws SQLException {
+		return inTransaction(esql, () -> {
+			List<Integer> promoted = new ArrayList<Integer>();
+			for (int appID : esql.executeQueryAndMap(FREED, RowMapper.FIRST_INT, limit)){
+				if (promote(esql, appID) >= 0){
+					settle(esql, appID, true);
+					promoted.add(appID);
+				}//end if
+			}//end for
+			return promoted;
+		});
+	}
+
+	/**
+	 * @return the holder and the waiters of an appointment, in the order they are served
+	 */
+	public static QueryResult queue(DBproject esql, int appID) throws SQLException {
+		return QueryResult.collect(esql, QUEUE, appID);
+	}
+
+	/**
+	 * Method to move a waiter ahead of the waiters of lower priority.  The
+	 * slot is locked first, like by cancel, so a cancellation never finds
+	 * the head of the waitlist locked by a priority change and skips it.
+	 *
+	 * @param esql the session, in a transaction of the caller or pinned for its own
+	 * @return the number of waiters changed, 0 if the patient is not waiting
+	 */
+	public static int setPriority(DBproject esql, int appID, int pid, int priority) throws SQLException {
+		return inTransaction(esql, () -> {
+			if (esql.executeQueryAndMapFirst(LOCK_SLOT, FIRST_DATE, appID) == null)
+				return 0;
+			return esql.executeUpdate(SET_PRIORITY, priority, appID, pid);
+		});
+	}
+
+	/*
+	 * hands the appointment to the head of its waitlist, skipping a head
+	 * locked by another transaction
+	 *
+	 * @return the promoted patient, -1 if none was
+	 */
+	private static int promote(DBproject esql, int appID) throws SQLException {
+		Integer pid = esql.executeQueryAndMapFirst(PROMOTE, RowMapper.FIRST_INT, appID);
+		return pid == null ? -1 : pid;
+	}
+
+	/*
+	 * sets the status after the queue changed: 'WL' or 'AC' while held,
+	 * 'AV' otherwise
+	 */
+	private static Status settle(DBproject esql, int appID, boolean held) throws SQLException {
+		if (held)
+			return esql.executeQueryAndMapFirst(HOLD, FIRST_STATUS, appID, appID);
+		return esql.executeQueryAndMapFirst(RELEASE, FIRST_STATUS, appID);
+	}
+
+	private static <T> T inTransaction(DBproject esql, Work<T> work) throws SQLException {
+		Connection conn = esql.pin();
+		// joins the transaction of a caller, e.g. BatchRunner
+		if (!conn.getAutoCommit())
+			return work.run();
+		try{
+			conn.setAutoCommit(false);
+			// runs again after a deadlock or serialization failure, which rolled it back
+			for (int attempt = 1; ; ++attempt){
+				try{
+					T result = work.run();
+					conn.commit();
+					return result;
+				}catch (SQLException e){
+					DBproject.rollback(conn, e);
+					if (!DBproject.retries.isConflict(e) || !DBproject.retries.shouldRetry(e, attempt, true) || !DBproject.retries.pause(attempt))
+						throw e;
+				}//end try
+			}//end for
+		}finally{
+			esql.endTransaction(conn);
+		}//end try
+	}
+
+	/**
+	 * Lists the queue of an appointment, or promotes the waiters of freed
+	 * appointments once or every given number of seconds.
+	 *
+	 * @param args <dbname> <port> <user> -list <appointment ID> | -drain | -drain-every <seconds>
+	 */
+	public static void main(String[] args){
+		boolean drain = args.length == 4 && args[3].equals("-drain");
+		if (!drain && !(args.length == 5 && (args[3].equals("-list") || args[3].equals("-drain-every")))){
+			System.err.println("Usage: java [-classpath <classpath>] " + Waitlist.class.getName() +
+					" <dbname> <port> <user> -list <appointment ID> | -drain | -drain-every <seconds>");
+			return;
+		}//end if
+		DBproject esql = null;
+		int status = 0;
+		try{
+			esql = new DBproject(args[0], args[1], args[2], "");
+			if (args[3].equals("-list")){
+				if (queue(esql, Integer.parseInt(args[4])).print(System.out) == 0)
+					System.out.println("Nobody is booked on this appointment");
+			}else{
+				long periodMillis = drain ? 0 : Long.parseLong(args[4]) * 1000;
+				do{
+					int promoted = 0;
+					List<Integer> batch;
+					do{
+						batch = drain(esql, DEFAULT_DRAIN_LIMIT);
+						promoted += batch.size();
+					}while (batch.size() == DEFAULT_DRAIN_LIMIT);
+					System.out.println("Promoted the waitlists of " + promoted + " appointment(s)");
+					Thread.sleep(periodMillis);
+				}while (periodMillis > 0);
+			}//end if
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			status = 1;
+		}finally{
+			if (esql != null)
+				esql.cleanup();
+		}//end try
+		System.exit(status);
+	}
+}//end Waitlist
@@ -8,6 +8,9 @@ DROP TABLE IF EXISTS has_appointment CASCADE;--OK
 DROP TABLE IF EXISTS request_maintenance CASCADE;--OK
 DROP TABLE IF EXISTS searches CASCADE;--OK
 DROP TABLE IF EXISTS schedules CASCADE;--OK
+DROP TABLE IF EXISTS doctor_status_count CASCADE;--OK
+DROP TABLE IF EXISTS booking_queue CASCADE;--OK
+DROP TABLE IF EXISTS appointment_events CASCADE;--OK
 
 
 -------------
@@ -74,7 +77,9 @@ CREATE TABLE Appointment
 	adate DATE NOT NULL,
 	time_slot VARCHAR(11),
 	status _STATUS,
-	PRIMARY KEY (appnt_ID)
+	PRIMARY KEY (appnt_ID),
+	-- referenced by the links below, which carry the date (see partition.sql)
+	UNIQUE (appnt_ID, adate)
 );
 
 
@@ -100,18 +105,20 @@ CREATE TABLE searches
 	hid INTEGER NOT NULL,	
 	pid INTEGER NOT NULL,
 	aid INTEGER NOT NULL,
+	adate DATE NOT NULL,
 	PRIMARY KEY (hid,pid,aid),
 	FOREIGN KEY (hid) REFERENCES Hospital(hospital_ID),
 	FOREIGN KEY (pid) REFERENCES Patient(patient_ID),
-	FOREIGN KEY (aid) REFERENCES Appointment(appnt_ID)
+	FOREIGN KEY (aid, adate) REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE
 );
 
 CREATE TABLE schedules
 (
 	appt_id INTEGER NOT NULL,
 	staff_id INTEGER NOT NULL,	
+	adate DATE NOT NULL,
 	PRIMARY KEY (appt_id,staff_id),
-	FOREIGN KEY (appt_id) REFERENCES Appointment(appnt_ID),
+	FOREIGN KEY (appt_id, adate) REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE,
 	FOREIGN KEY (staff_id) REFERENCES Staff(staff_ID)
 );
 
@@ -119,11 +126,38 @@ CREATE TABLE has_appointment
 (
 	appt_id INTEGER NOT NULL,
 	doctor_id INTEGER NOT NULL,	
+	adate DATE NOT NULL,
 	PRIMARY KEY (appt_id,doctor_id),
-	FOREIGN KEY (appt_id) REFERENCES Appointment(appnt_ID),
+	FOREIGN KEY (appt_id, adate) REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE,
 	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
 );
 
+-- The links carry the date of their appointment, so they can be partitioned
+-- with it.  Rows written without the date (the CSV files) get it here; on a
+-- partitioned schema the writers have to supply it.
+CREATE OR REPLACE FUNCTION link_adate() RETURNS trigger AS $$
+DECLARE
+	appt INTEGER;
+BEGIN
+	IF NEW.adate IS NULL THEN
+		IF TG_TABLE_NAME = 'searches' THEN
+			appt := NEW.aid;
+		ELSE
+			appt := NEW.appt_id;
+		END IF;
+		SELECT adate INTO NEW.adate FROM Appointment WHERE appnt_ID = appt;
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER searches_adate BEFORE INSERT ON searches
+FOR EACH ROW EXECUTE PROCEDURE link_adate();
+CREATE TRIGGER schedules_adate BEFORE INSERT ON schedules
+FOR EACH ROW EXECUTE PROCEDURE link_adate();
+CREATE TRIGGER has_appointment_adate BEFORE INSERT ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE link_adate();
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -221,38 +255,220 @@ COPY has_appointment (
 FROM 'has_appointment.csv'
 WITH DELIMITER ',';
 
+-------------------
+---NOTIFICATIONS---
+-------------------
+-- Changes of the reference tables are notified on commit with the table
+-- name, ReferenceData reloads that table in the clients listening.
+CREATE OR REPLACE FUNCTION notify_reference_data() RETURNS trigger AS $$
+BEGIN
+	PERFORM pg_notify('reference_data', lower(TG_TABLE_NAME));
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER doctor_notify AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Doctor
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reference_data();
+CREATE TRIGGER department_notify AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Department
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reference_data();
+CREATE TRIGGER hospital_notify AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Hospital
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reference_data();
+CREATE TRIGGER staff_notify AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Staff
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reference_data();
+
+-----------------
+----SEQUENCES----
+-----------------
+-- New IDs come from these sequences instead of count(*). They step by 1000:
+-- every nextval hands the caller a block of 1000 IDs starting at the returned
+-- value (IdAllocator.BLOCK_SIZE), so clients reserve IDs once per block.
+CREATE SEQUENCE doctor_id_seq INCREMENT BY 1000 MINVALUE 0 OWNED BY Doctor.doctor_ID;
+CREATE SEQUENCE patient_id_seq INCREMENT BY 1000 MINVALUE 0 OWNED BY Patient.patient_ID;
+CREATE SEQUENCE appointment_id_seq INCREMENT BY 1000 MINVALUE 0 OWNED BY Appointment.appnt_ID;
+
+-- start after the loaded data
+SELECT setval('doctor_id_seq', COALESCE(MAX(doctor_ID), -1) + 1, false) FROM Doctor;
+SELECT setval('patient_id_seq', COALESCE(MAX(patient_ID), -1) + 1, false) FROM Patient;
+SELECT setval('appointment_id_seq', COALESCE(MAX(appnt_ID), -1) + 1, false) FROM Appointment;
+
+-- inserts without an explicit ID take the first ID of a fresh block
+ALTER TABLE Doctor ALTER COLUMN doctor_ID SET DEFAULT nextval('doctor_id_seq');
+ALTER TABLE Patient ALTER COLUMN patient_ID SET DEFAULT nextval('patient_id_seq');
+ALTER TABLE Appointment ALTER COLUMN appnt_ID SET DEFAULT nextval('appointment_id_seq');
+
+-----------------
+----COUNTERS-----
+-----------------
+-- Number of appointments per doctor and status, read by the reports 7 and 8
+-- instead of aggregating has_appointment x Appointment on every call.  The
+-- triggers below keep it up to date for every writer, StatusCounters checks
+-- it against the full aggregate and rebuilds it.  Appointments without a
+-- status are not counted.
+CREATE TABLE doctor_status_count
+(
+	doctor_id INTEGER NOT NULL,
+	status _STATUS NOT NULL,
+	num INTEGER NOT NULL,
+	PRIMARY KEY (doctor_id, status),
+	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
+);
+
+INSERT INTO doctor_status_count
+SELECT h.doctor_id, a.status, count(*)
+FROM has_appointment h, Appointment a
+WHERE h.appt_id = a.appnt_ID AND a.status IS NOT NULL
+GROUP BY h.doctor_id, a.status;
+
+CREATE OR REPLACE FUNCTION count_status(doctor INTEGER, appt_status VARCHAR, delta INTEGER) RETURNS void AS $$
+BEGIN
+	IF appt_status IS NOT NULL THEN
+		INSERT INTO doctor_status_count VALUES (doctor, appt_status, delta)
+		ON CONFLICT (doctor_id, status) DO UPDATE SET num = doctor_status_count.num + excluded.num;
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- A link counts with the status of its appointment.  The appointment row is
+-- locked, so a concurrent status change waits for this transaction and then
+-- sees the link (and the other way round).
+CREATE OR REPLACE FUNCTION has_appointment_counts() RETURNS trigger AS $$
+DECLARE
+	appt_status VARCHAR;
+BEGIN
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		SELECT status INTO appt_status FROM Appointment WHERE appnt_ID = OLD.appt_id FOR SHARE;
+		PERFORM count_status(OLD.doctor_id, appt_status, -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		SELECT status INTO appt_status FROM Appointment WHERE appnt_ID = NEW.appt_id FOR SHARE;
+		PERFORM count_status(NEW.doctor_id, appt_status, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- A status change moves the links of the appointment to the new status.  It
+-- runs BEFORE the update, so a link inserted by the same statement (the
+-- booking statement of BookingEngine) is not there yet and is counted by
+-- has_appointment_counts with the new status instead.
+CREATE OR REPLACE FUNCTION appointment_counts() RETURNS trigger AS $$
+BEGIN
+	IF NEW.status IS DISTINCT FROM OLD.status THEN
+		PERFORM count_status(h.doctor_id, OLD.status, -1), count_status(h.doctor_id, NEW.status, 1)
+		FROM has_appointment h WHERE h.appt_id = OLD.appnt_ID;
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER has_appointment_counts AFTER INSERT OR UPDATE OR DELETE ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE has_appointment_counts();
+CREATE TRIGGER appointment_counts BEFORE UPDATE OF status ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE appointment_counts();
+
+-----------------
+----WAITLIST-----
+-----------------
+-- The patients booked on an appointment: its holder ('AC') and the waiters
+-- ('WL'), served by priority and then first come, first served.  Bookings
+-- join the queue in the statement that claims the slot (BookingEngine),
+-- cancellations promote its head (Waitlist).  Appointments booked before
+-- the queue existed have no holder row.
+CREATE TABLE booking_queue
+(
+	appt_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	patient_id INTEGER NOT NULL,
+	status _STATUS NOT NULL CHECK (status IN ('AC', 'WL')),
+	priority INTEGER NOT NULL DEFAULT 0,
+	ticket BIGSERIAL,
+	requested TIMESTAMP NOT NULL DEFAULT now(),
+	PRIMARY KEY (appt_id, patient_id),
+	FOREIGN KEY (appt_id, adate) REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE ON DELETE CASCADE,
+	FOREIGN KEY (patient_id) REFERENCES Patient(patient_ID)
+);
+
+-- the next waiter of an appointment is the first entry of its range
+CREATE INDEX booking_queue_next ON booking_queue USING BTREE (appt_id, priority DESC, ticket) WHERE status = 'WL';
+
+-----------------
+-----EVENTS------
+-----------------
+-- Outbox of the changes of Appointment: every insert and status change
+-- writes an event in the transaction that makes it, so an event exists
+-- exactly when its change committed.  EventRelay delivers the events in
+-- event_id order and deletes them once delivered; the notification wakes
+-- it up instead of polling.  Appointments copied from the CSV files above
+-- have no events, rows loaded later (e.g. by BulkLoader) do.
+CREATE TABLE appointment_events
+(
+	event_id BIGSERIAL PRIMARY KEY,
+	operation VARCHAR(6) NOT NULL,
+	appt_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	time_slot VARCHAR(11),
+	old_status _STATUS,
+	new_status _STATUS,
+	changed TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE OR REPLACE FUNCTION appointment_event() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' THEN
+		INSERT INTO appointment_events (operation, appt_id, adate, time_slot, old_status, new_status)
+		VALUES (TG_OP, NEW.appnt_ID, NEW.adate, NEW.time_slot, OLD.status, NEW.status);
+	ELSE
+		INSERT INTO appointment_events (operation, appt_id, adate, time_slot, old_status, new_status)
+		VALUES (TG_OP, NEW.appnt_ID, NEW.adate, NEW.time_slot, NULL, NEW.status);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_appointment_events() RETURNS trigger AS $$
+BEGIN
+	PERFORM pg_notify('appointment_events', '');
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_insert_event AFTER INSERT ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE appointment_event();
+CREATE TRIGGER appointment_status_event AFTER UPDATE OF status ON Appointment
+FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status) EXECUTE PROCEDURE appointment_event();
+CREATE TRIGGER appointment_events_notify AFTER INSERT ON appointment_events
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_appointment_events();
+
 ---------------
 ----INDEXES----
 ---------------
-DROP INDEX IF EXISTS doctor_name;
-DROP INDEX IF EXISTS doctor_id;
-DROP INDEX IF EXISTS doctor_specialty;
-DROP INDEX IF EXISTS doctor_did;
+-- Chosen for the menu queries of DBproject (checked by PlanChecker). Primary
+-- keys are indexed already, so they get no second index, and columns with a
+-- handful of values (gender, status) only appear as index predicates.
+DROP INDEX IF EXISTS doctor_did_name;
 DROP INDEX IF EXISTS patient_name;
-DROP INDEX IF EXISTS patient_id;
-DROP INDEX IF EXISTS patient_gender;
-DROP INDEX IF EXISTS patient_age;
-DROP INDEX IF EXISTS patient_address;
-DROP INDEX IF EXISTS patient_num_appt;
-DROP INDEX IF EXISTS appt_date;
-DROP INDEX IF EXISTS appt_id;
-DROP INDEX IF EXISTS appt_status;
-DROP INDEX IF EXISTS appt_timeslot;
+DROP INDEX IF EXISTS appt_date_slot;
+DROP INDEX IF EXISTS appt_available_date;
+DROP INDEX IF EXISTS appt_available_slot;
 DROP INDEX IF EXISTS dept_name;
+DROP INDEX IF EXISTS has_appointment_doctor;
+DROP INDEX IF EXISTS searches_aid;
 
-CREATE INDEX doctor_name ON Doctor USING BTREE (name);
-CREATE INDEX doctor_id ON Doctor USING BTREE (doctor_ID);
-CREATE INDEX doctor_specialty ON Doctor USING BTREE (specialty);
-CREATE INDEX doctor_did ON Doctor USING BTREE (did);
+-- Add Doctor duplicate check (1), also the Doctor -> Department foreign key
+CREATE INDEX doctor_did_name ON Doctor USING BTREE (did, name);
+-- Add Patient duplicate check (2)
 CREATE INDEX patient_name ON Patient USING BTREE (name);
-CREATE INDEX patient_id ON Patient USING BTREE (patient_ID);
-CREATE INDEX patient_gender ON Patient USING BTREE (gtype);
-CREATE INDEX patient_age ON Patient USING BTREE (age);
-CREATE INDEX patient_address ON Patient USING BTREE (address);
-CREATE INDEX patient_num_appt ON Patient USING BTREE (number_of_appts);
-CREATE INDEX appt_date ON Appointment USING BTREE (adate);
-CREATE INDEX appt_id ON Appointment USING BTREE (appnt_id);
-CREATE INDEX appt_status ON Appointment USING BTREE (status);
-CREATE INDEX appt_timeslot ON Appointment USING BTREE (time_slot);
-CREATE INDEX dept_name ON Department USING BTREE (name);
+-- Add Appointment duplicate check (3), date ranges of the doctor listing (5)
+CREATE INDEX appt_date_slot ON Appointment USING BTREE (adate, time_slot);
+-- available appointments of a date (6) and in date order (SlotSearch), only
+-- the 'AV' slots are indexed; time slots are padded to sort by start time
+-- ("8:00-10:00" before "10:00-12:00"), time_slot included for an index only scan
+CREATE INDEX appt_available_slot ON Appointment USING BTREE (adate, lpad(time_slot, 11, '0'), appnt_ID) INCLUDE (time_slot) WHERE status = 'AV';
+-- departments by name (6), hid included for an index only scan
+CREATE INDEX dept_name ON Department USING BTREE (name, hid);
+-- appointments of a doctor (5); the primary key leads with appt_id
+CREATE INDEX has_appointment_doctor ON has_appointment USING BTREE (doctor_id, appt_id);
+-- hospitals an appointment is searched in (6, SlotSearch); the primary key
+-- leads with hid, adate included for an index only scan
+CREATE INDEX searches_aid ON searches USING BTREE (aid, hid) INCLUDE (adate);
 
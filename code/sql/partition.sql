@@ -0,0 +1,172 @@
+-- Converts a database created by create.sql to Appointment and its links
+-- (has_appointment, searches, schedules) partitioned by month of adate.
+-- Opt-in and run once, with the clients stopped; needs PostgreSQL 13 or
+-- later.  AppointmentPartitions creates the months ahead and retires old
+-- ones afterwards.
+--
+-- On the partitioned schema appnt_ID is unique through appointment_id_seq
+-- only: a primary key has to contain the partition key, so it becomes
+-- (appnt_ID, adate).  The links reference that pair, and rows inserted into
+-- them must carry adate, it decides the partition before any trigger runs
+-- (BulkLoader looks it up for the link files).
+
+BEGIN;
+
+-------------------
+---OLD TABLES------
+-------------------
+-- kept until their rows are copied; the sequence must survive their drop
+ALTER SEQUENCE appointment_id_seq OWNED BY NONE;
+ALTER TABLE booking_queue DROP CONSTRAINT booking_queue_appt_id_adate_fkey;
+
+ALTER TABLE Appointment RENAME TO appointment_unpartitioned;
+ALTER TABLE appointment_unpartitioned RENAME CONSTRAINT appointment_pkey TO appointment_unpartitioned_pkey;
+ALTER TABLE appointment_unpartitioned RENAME CONSTRAINT appointment_appnt_id_adate_key TO appointment_unpartitioned_appnt_id_adate_key;
+ALTER TABLE has_appointment RENAME TO has_appointment_unpartitioned;
+ALTER TABLE has_appointment_unpartitioned RENAME CONSTRAINT has_appointment_pkey TO has_appointment_unpartitioned_pkey;
+ALTER TABLE searches RENAME TO searches_unpartitioned;
+ALTER TABLE searches_unpartitioned RENAME CONSTRAINT searches_pkey TO searches_unpartitioned_pkey;
+ALTER TABLE schedules RENAME TO schedules_unpartitioned;
+ALTER TABLE schedules_unpartitioned RENAME CONSTRAINT schedules_pkey TO schedules_unpartitioned_pkey;
+
+DROP INDEX IF EXISTS appt_date_slot;
+DROP INDEX IF EXISTS appt_available_date;
+DROP INDEX IF EXISTS appt_available_slot;
+DROP INDEX IF EXISTS has_appointment_doctor;
+DROP INDEX IF EXISTS searches_aid;
+
+------------
+---TABLES---
+------------
+CREATE TABLE Appointment
+(
+	appnt_ID INTEGER NOT NULL DEFAULT nextval('appointment_id_seq'),
+	adate DATE NOT NULL,
+	time_slot VARCHAR(11),
+	status _STATUS,
+	PRIMARY KEY (appnt_ID, adate)
+) PARTITION BY RANGE (adate);
+
+ALTER SEQUENCE appointment_id_seq OWNED BY Appointment.appnt_ID;
+
+CREATE TABLE searches
+(
+	hid INTEGER NOT NULL,
+	pid INTEGER NOT NULL,
+	aid INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	PRIMARY KEY (hid,pid,aid,adate),
+	FOREIGN KEY (hid) REFERENCES Hospital(hospital_ID),
+	FOREIGN KEY (pid) REFERENCES Patient(patient_ID),
+	FOREIGN KEY (aid, adate) REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE schedules
+(
+	appt_id INTEGER NOT NULL,
+	staff_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	PRIMARY KEY (appt_id,staff_id,adate),
+	FOREIGN KEY (appt_id, adate) REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE,
+	FOREIGN KEY (staff_id) REFERENCES Staff(staff_ID)
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE has_appointment
+(
+	appt_id INTEGER NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	PRIMARY KEY (appt_id,doctor_id,adate),
+	FOREIGN KEY (appt_id, adate) REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE,
+	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
+) PARTITION BY RANGE (adate);
+
+-- same indexes as create.sql, created on every partition
+CREATE INDEX appt_date_slot ON Appointment USING BTREE (adate, time_slot);
+CREATE INDEX appt_available_slot ON Appointment USING BTREE (adate, lpad(time_slot, 11, '0'), appnt_ID) INCLUDE (time_slot) WHERE status = 'AV';
+CREATE INDEX has_appointment_doctor ON has_appointment USING BTREE (doctor_id, appt_id);
+CREATE INDEX searches_aid ON searches USING BTREE (aid, hid) INCLUDE (adate);
+
+----------------
+---PARTITIONS---
+----------------
+-- Adds the partitions of one month (named <table>_pYYYYMM) to the four
+-- tables, or returns false if they exist.  Each partition is created on its
+-- own and then attached with a CHECK constraint matching its bounds, which
+-- only locks the parent against other DDL, so bookings carry on meanwhile
+-- (the foreign keys of the new links lock Appointment for the instant their
+-- empty partitions are validated).
+CREATE OR REPLACE FUNCTION add_appointment_month(in_month DATE) RETURNS boolean AS $$
+DECLARE
+	month_start DATE := date_trunc('month', in_month);
+	month_end DATE := date_trunc('month', in_month) + interval '1 month';
+	suffix TEXT := '_p' || to_char(in_month, 'YYYYMM');
+	parent TEXT;
+BEGIN
+	IF to_regclass('appointment' || suffix) IS NOT NULL THEN
+		RETURN false;
+	END IF;
+	-- Appointment first, the links reference it
+	FOREACH parent IN ARRAY ARRAY['appointment', 'has_appointment', 'searches', 'schedules'] LOOP
+		EXECUTE format('CREATE TABLE %I (LIKE %I)', parent || suffix, parent);
+		EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I CHECK (adate >= %L AND adate < %L)',
+			parent || suffix, parent || suffix || '_bounds', month_start, month_end);
+		EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+			parent, parent || suffix, month_start, month_end);
+		EXECUTE format('ALTER TABLE %I DROP CONSTRAINT %I', parent || suffix, parent || suffix || '_bounds');
+	END LOOP;
+	RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the months of the existing rows and three months ahead
+SELECT add_appointment_month(cast(m AS DATE))
+FROM generate_series(
+	(SELECT date_trunc('month', coalesce(min(adate), current_date)) FROM appointment_unpartitioned),
+	(SELECT date_trunc('month', greatest(max(adate), current_date)) + interval '3 months' FROM appointment_unpartitioned),
+	interval '1 month') m;
+
+-----------
+---ROWS----
+-----------
+INSERT INTO Appointment (appnt_ID, adate, time_slot, status)
+SELECT appnt_ID, adate, time_slot, status FROM appointment_unpartitioned;
+INSERT INTO searches (hid, pid, aid, adate)
+SELECT hid, pid, aid, adate FROM searches_unpartitioned;
+INSERT INTO schedules (appt_id, staff_id, adate)
+SELECT appt_id, staff_id, adate FROM schedules_unpartitioned;
+INSERT INTO has_appointment (appt_id, doctor_id, adate)
+SELECT appt_id, doctor_id, adate FROM has_appointment_unpartitioned;
+
+DROP TABLE has_appointment_unpartitioned;
+DROP TABLE schedules_unpartitioned;
+DROP TABLE searches_unpartitioned;
+DROP TABLE appointment_unpartitioned;
+
+ALTER TABLE booking_queue ADD FOREIGN KEY (appt_id, adate)
+REFERENCES Appointment(appnt_ID, adate) ON UPDATE CASCADE ON DELETE CASCADE;
+
+--------------
+---COUNTERS---
+--------------
+-- created after the copy, doctor_status_count counts the copied links already
+CREATE TRIGGER has_appointment_counts AFTER INSERT OR UPDATE OR DELETE ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE has_appointment_counts();
+CREATE TRIGGER appointment_counts BEFORE UPDATE OF status ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE appointment_counts();
+
+------------
+---EVENTS---
+------------
+-- after the copy as well, the copied rows are not changes
+CREATE TRIGGER appointment_insert_event AFTER INSERT ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE appointment_event();
+CREATE TRIGGER appointment_status_event AFTER UPDATE OF status ON Appointment
+FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status) EXECUTE PROCEDURE appointment_event();
+
+COMMIT;
+
+ANALYZE Appointment;
+ANALYZE has_appointment;
+ANALYZE searches;
+ANALYZE schedules;